@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.client.Callback;
+
+/**
+ * GssResource whose css is emitted behind a split point, so that the text of the stylesheets of
+ * the secondary screens is not part of the initial download. The class names are still available
+ * synchronously.
+ * <p>
+ * The css has to be loaded with {@link #ensureInjected(Callback)} before {@link #getText()} is
+ * called. {@link #ensureInjected()} starts the loading of the css and injects it once loaded.
+ */
+public interface AsyncGssResource extends GssResource {
+
+  /**
+   * Loads the css if needed, injects it and calls the callback.
+   */
+  void ensureInjected(Callback<Void, Throwable> callback);
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.client;
+
+/**
+ * Reports the cost of the css of the GssResources to a listener, e.g. in order to collect metrics
+ * on real devices.
+ * <p>
+ * The generated resources report only if the deferred-binding property {@code gss.instrumentation}
+ * is set to {@code enabled}. Otherwise, the reporting code is not generated and the permutations
+ * don't pay any cost.
+ */
+public class GssInstrumentation {
+
+  /**
+   * Receives the measures of the resources. Times are in milliseconds.
+   */
+  public interface Listener {
+    /**
+     * Called each time the text of a resource is built by {@link CssResource#getText()}.
+     */
+    void onTextBuilt(String resourceName, int textLength, double buildTime);
+
+    /**
+     * Called when the css of a resource is injected. The injection time is the time spent to
+     * register the css, the insertion in the document is batched at the end of the event loop.
+     */
+    void onInjected(String resourceName, int textLength, double buildTime, double injectTime);
+  }
+
+  private static Listener listener;
+
+  /**
+   * Sets the listener receiving the measures, or null to stop the reporting.
+   */
+  public static void setListener(Listener listener) {
+    GssInstrumentation.listener = listener;
+  }
+
+  public static void reportTextBuilt(String resourceName, int textLength, double buildTime) {
+    if (listener != null) {
+      listener.onTextBuilt(resourceName, textLength, buildTime);
+    }
+  }
+
+  public static void reportInjected(String resourceName, int textLength, double buildTime,
+      double injectTime) {
+    if (listener != null) {
+      listener.onInjected(resourceName, textLength, buildTime, injectTime);
+    }
+  }
+
+  private GssInstrumentation() {
+  }
+}
@@ -20,7 +20,25 @@ import com.google.gwt.resources.ext.DefaultExtensions;
 import com.google.gwt.resources.ext.ResourceGeneratorType;
 import com.google.gwt.resources.rg.GssResourceGenerator;
 
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
 @DefaultExtensions(value = {".gss", ".css"})
 @ResourceGeneratorType(GssResourceGenerator.class)
 public interface GssResource extends CssResource {
+
+  /**
+   * Makes the resource inject its css the first time one of its class names is requested, so that
+   * {@link #ensureInjected()} doesn't need to be called and the styles of the parts of the
+   * application never displayed never reach the DOM. The annotation is inherited by the
+   * sub-interfaces.
+   */
+  @Documented
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.TYPE)
+  public @interface AutoInject {
+  }
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.dom.client.StyleElement;
+import com.google.gwt.dom.client.StyleInjector;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Injects the css of the GssResources.
+ * <p>
+ * The css injected during the same event loop is inserted at the end of the event loop, in the
+ * order of the calls, whether it is injected as text or rule by rule. Consecutive texts are
+ * coalesced into one stylesheet. A text is injected only once: a text equal to a text already
+ * injected, e.g. the text of two resources using the same stylesheet, is ignored.
+ * <p>
+ * The css split in rules at compile time is inserted rule by rule with {@code insertRule()} in one
+ * stylesheet shared by all the resources, which avoids to parse again the whole stylesheet when
+ * new css is injected. A new shared stylesheet is started when another stylesheet has been added
+ * after the current one, so that the rules keep the cascade order of their injection.
+ */
+public class GssStyleInjector {
+  /**
+   * Css waiting for the end of the event loop, either a text or rules.
+   */
+  private static class PendingCss {
+    private final String text;
+    private final String[] rules;
+
+    private PendingCss(String text, String[] rules) {
+      this.text = text;
+      this.rules = rules;
+    }
+  }
+
+  // strings are hashed on their content and stored as properties of a javascript object
+  private static final Set<String> injectedTexts = new HashSet<String>();
+  private static final List<PendingCss> pendingCss = new ArrayList<PendingCss>();
+  private static StyleElement rulesStyleElement;
+  private static boolean flushScheduled;
+
+  /**
+   * Schedules the injection of the css at the end of the current event loop. Returns false if the
+   * same css has already been injected.
+   */
+  public static boolean inject(String css) {
+    if (!injectedTexts.add(css)) {
+      return false;
+    }
+
+    schedule(new PendingCss(css, null));
+    return true;
+  }
+
+  /**
+   * Schedules the injection, after the current event loop, of css only applying to the given media,
+   * e.g. {@code print}. The css is injected in its own stylesheet having a {@code media} attribute
+   * so that the browser doesn't apply it when rendering the page. Returns false if the same css has
+   * already been injected.
+   */
+  public static boolean injectDeferred(final String css, final String media) {
+    if (!injectedTexts.add(css)) {
+      return false;
+    }
+
+    Scheduler.get().scheduleDeferred(new ScheduledCommand() {
+      @Override
+      public void execute() {
+        StyleInjector.injectStylesheetAtEnd(css).setMedia(media);
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Schedules the insertion of the rules at the end of the current event loop. Returns false if the
+   * same rules have already been injected.
+   */
+  public static boolean insertRules(String[] rules) {
+    if (!injectedTexts.add(join(rules))) {
+      return false;
+    }
+
+    schedule(new PendingCss(null, rules));
+    return true;
+  }
+
+  /**
+   * Returns the text of the rules.
+   */
+  public static String join(String[] rules) {
+    StringBuilder text = new StringBuilder();
+    for (String rule : rules) {
+      text.append(rule);
+    }
+    return text.toString();
+  }
+
+  /**
+   * Inserts the pending css in the document immediately.
+   */
+  public static void flush() {
+    StyleInjector.flush();
+    flushPendingCss();
+  }
+
+  /**
+   * Sets a css custom property on the root element of the document. Does nothing if the browser
+   * doesn't support custom properties.
+   */
+  public static native void setCustomProperty(String name, String value) /*-{
+    var style = $doc.documentElement.style;
+    if (style.setProperty) {
+      style.setProperty(name, value);
+    }
+  }-*/;
+
+  private static void schedule(PendingCss css) {
+    pendingCss.add(css);
+
+    if (!flushScheduled) {
+      flushScheduled = true;
+      Scheduler.get().scheduleFinally(new ScheduledCommand() {
+        @Override
+        public void execute() {
+          flushPendingCss();
+        }
+      });
+    }
+  }
+
+  private static void flushPendingCss() {
+    flushScheduled = false;
+    if (pendingCss.isEmpty()) {
+      return;
+    }
+
+    List<PendingCss> toFlush = new ArrayList<PendingCss>(pendingCss);
+    pendingCss.clear();
+
+    StringBuilder text = new StringBuilder();
+    for (PendingCss css : toFlush) {
+      if (css.rules == null) {
+        text.append(css.text);
+        continue;
+      }
+
+      // the texts injected before the rules come first
+      if (text.length() > 0) {
+        StyleInjector.injectStylesheetAtEnd(text.toString());
+        text.setLength(0);
+      }
+      insertRulesAtEnd(css.rules);
+    }
+
+    if (text.length() > 0) {
+      StyleInjector.injectStylesheetAtEnd(text.toString());
+    }
+  }
+
+  private static void insertRulesAtEnd(String[] rules) {
+    if (rulesStyleElement == null) {
+      rulesStyleElement = StyleInjector.injectStylesheetAtEnd("");
+    }
+
+    if (!supportsInsertRule(rulesStyleElement)) {
+      // insertRule() is not supported, e.g. IE8
+      StyleInjector.injectStylesheetAtEnd(join(rules));
+      return;
+    }
+
+    if (!isLastStylesheet(rulesStyleElement)) {
+      // rules inserted in the shared stylesheet would come before css injected after it
+      rulesStyleElement = StyleInjector.injectStylesheetAtEnd("");
+    }
+
+    for (String rule : rules) {
+      insertRule(rulesStyleElement, rule);
+    }
+  }
+
+  private static native boolean supportsInsertRule(StyleElement style) /*-{
+    return !!(style.sheet && style.sheet.insertRule);
+  }-*/;
+
+  private static native boolean isLastStylesheet(StyleElement style) /*-{
+    for (var node = style.nextSibling; node; node = node.nextSibling) {
+      var tagName = (node.tagName || "").toLowerCase();
+      if (tagName == "style" || tagName == "link") {
+        return false;
+      }
+    }
+    return true;
+  }-*/;
+
+  private static native void insertRule(StyleElement style, String rule) /*-{
+    var sheet = style.sheet;
+    try {
+      sheet.insertRule(rule, sheet.cssRules.length);
+    } catch (e) {
+      // the rule is not supported by the browser, as it would be ignored in a stylesheet
+    }
+  }-*/;
+
+  private GssStyleInjector() {
+  }
+}
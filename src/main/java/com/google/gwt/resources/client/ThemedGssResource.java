@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.client;
+
+/**
+ * GssResource emitting the values computed at runtime with {@code eval()} and {@code value()} as
+ * css custom properties, e.g. {@code color: var(--a)}. The stylesheet is injected once and a theme
+ * switch only updates the custom properties, which requires a browser supporting them.
+ */
+public interface ThemedGssResource extends GssResource {
+
+  /**
+   * Evaluates again the runtime values of the stylesheet and sets the custom properties on the
+   * document. Called the first time the css is injected.
+   */
+  void updateCustomProperties();
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.css.compiler.ast.CssDeclarationNode;
+import com.google.common.css.compiler.ast.CssNode;
+import com.google.common.css.compiler.ast.CssPriorityNode;
+import com.google.common.css.compiler.ast.CssRulesetNode;
+import com.google.common.css.compiler.ast.CssSelectorNode;
+import com.google.common.css.compiler.ast.CssSelectorNode.Specificity;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records, for a sequence of sibling nodes, which property families are set at which position and
+ * with which selector specificity. It is used to decide whether a ruleset can be moved back to an
+ * earlier position without changing the cascade.
+ * <p>
+ * Moving a ruleset backward over another ruleset can only change the computed style of an element
+ * when both rulesets may match it, set an overlapping property with the same importance and have
+ * the same specificity. As selector matching cannot be known at compile time, any two selectors
+ * with equal specificity are considered to match the same elements. Properties are grouped in
+ * families (the shorthand they belong to, vendor prefix removed) so that {@code margin} conflicts
+ * with {@code margin-top} and {@code -webkit-transition} with {@code transition}.
+ * <p>
+ * Lookups and insertions are constant time per (declaration, selector) pair.
+ */
+public class CascadeConflictIndex {
+  private static final String ALL_PROPERTY = "all";
+  private static final String IMPORTANT_SUFFIX = "!";
+
+  /**
+   * Properties overlapping with properties of another family.
+   */
+  private static final Map<String, String[]> FAMILY_ALIASES =
+      ImmutableMap.<String, String[]>builder()
+      .put("line-height", new String[]{"font"})
+      .put("word-wrap", new String[]{"overflow"})
+      .put("columns", new String[]{"column"})
+      .put("top", new String[]{"inset"})
+      .put("right", new String[]{"inset"})
+      .put("bottom", new String[]{"inset"})
+      .put("left", new String[]{"inset"})
+      .put("place-content", new String[]{"align", "justify"})
+      .put("place-items", new String[]{"align", "justify"})
+      .put("place-self", new String[]{"align", "justify"})
+      .put("row-gap", new String[]{"gap"})
+      .put("column-gap", new String[]{"gap"})
+      .put("grid-gap", new String[]{"gap"})
+      .put("grid-row-gap", new String[]{"gap"})
+      .put("grid-column-gap", new String[]{"gap"})
+      .put("page-break-after", new String[]{"break"})
+      .put("page-break-before", new String[]{"break"})
+      .put("page-break-inside", new String[]{"break"})
+      .put("inline-size", new String[]{"width", "height"})
+      .put("block-size", new String[]{"width", "height"})
+      .build();
+
+  private final Map<String, Map<Specificity, Integer>> lastPositions =
+      new HashMap<String, Map<Specificity, Integer>>();
+  private int lastBarrier = -1;
+
+  /**
+   * Returns true if all the declarations of the ruleset are plain declarations that can be
+   * analyzed by this index.
+   */
+  public static boolean isAnalyzable(CssRulesetNode ruleset) {
+    for (CssNode child : ruleset.getDeclarations().childIterable()) {
+      if (!(child instanceof CssDeclarationNode)) {
+        return false;
+      }
+
+      String propertyName = ((CssDeclarationNode) child).getPropertyName().getPropertyName();
+      if (ALL_PROPERTY.equals(propertyName)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the property families the given property belongs to.
+   */
+  static Set<String> getFamilies(String propertyName) {
+    String name = stripVendorPrefix(propertyName);
+    Set<String> families = new LinkedHashSet<String>();
+
+    int firstDash = name.indexOf('-');
+    families.add(firstDash > 0 ? name.substring(0, firstDash) : name);
+
+    String[] aliases = FAMILY_ALIASES.get(name);
+    if (aliases != null) {
+      for (String alias : aliases) {
+        families.add(alias);
+      }
+    }
+    return families;
+  }
+
+  static String stripVendorPrefix(String propertyName) {
+    if (propertyName.startsWith("-")) {
+      int secondDash = propertyName.indexOf('-', 1);
+      if (secondDash > 0) {
+        return propertyName.substring(secondDash + 1);
+      }
+    }
+    return propertyName;
+  }
+
+  private static boolean isImportant(CssDeclarationNode declaration) {
+    for (CssValueNode value : declaration.getPropertyValue().childIterable()) {
+      if (value instanceof CssPriorityNode) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Marks the position as a barrier: nothing can be moved before it.
+   */
+  public void addBarrier(int position) {
+    lastBarrier = Math.max(lastBarrier, position);
+  }
+
+  /**
+   * Records the node as being located at the given position. If the node is not a ruleset, all the
+   * rulesets it contains are recorded at that position. A barrier is added if the node contains a
+   * ruleset that cannot be analyzed.
+   */
+  public void record(CssNode node, final int position) {
+    if (node instanceof CssRulesetNode) {
+      recordRuleset((CssRulesetNode) node, position);
+      return;
+    }
+
+    node.getVisitController().startVisit(new DefaultTreeVisitor() {
+      @Override
+      public boolean enterRuleset(CssRulesetNode ruleset) {
+        recordRuleset(ruleset, position);
+        return false;
+      }
+    });
+  }
+
+  private void recordRuleset(CssRulesetNode ruleset, int position) {
+    if (!isAnalyzable(ruleset)) {
+      addBarrier(position);
+      return;
+    }
+
+    for (String key : getKeys(ruleset)) {
+      Map<Specificity, Integer> bySpecificity = lastPositions.get(key);
+      if (bySpecificity == null) {
+        bySpecificity = new HashMap<Specificity, Integer>();
+        lastPositions.put(key, bySpecificity);
+      }
+
+      for (CssSelectorNode selector : ruleset.getSelectors().childIterable()) {
+        Specificity specificity = selector.getSpecificity();
+        Integer last = bySpecificity.get(specificity);
+        if (last == null || last < position) {
+          bySpecificity.put(specificity, position);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns true if the node, and all the rulesets it contains, can be moved just after the given
+   * position without changing the cascade.
+   */
+  public boolean canMoveAfter(CssNode node, final int position) {
+    if (node instanceof CssRulesetNode) {
+      return canMoveAfter((CssRulesetNode) node, position);
+    }
+
+    final boolean[] movable = {true};
+    node.getVisitController().startVisit(new DefaultTreeVisitor() {
+      @Override
+      public boolean enterRuleset(CssRulesetNode ruleset) {
+        movable[0] &= canMoveAfter(ruleset, position);
+        return false;
+      }
+    });
+    return movable[0];
+  }
+
+  /**
+   * Returns true if the ruleset can be moved just after the given position without changing the
+   * cascade, i.e. no barrier and no conflicting ruleset have been recorded after that position.
+   */
+  public boolean canMoveAfter(CssRulesetNode ruleset, int position) {
+    if (lastBarrier > position || !isAnalyzable(ruleset)) {
+      return false;
+    }
+
+    for (String key : getKeys(ruleset)) {
+      Map<Specificity, Integer> bySpecificity = lastPositions.get(key);
+      if (bySpecificity == null) {
+        continue;
+      }
+
+      for (CssSelectorNode selector : ruleset.getSelectors().childIterable()) {
+        Integer last = bySpecificity.get(selector.getSpecificity());
+        if (last != null && last > position) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private Set<String> getKeys(CssRulesetNode ruleset) {
+    Set<String> keys = new LinkedHashSet<String>();
+    for (CssNode child : ruleset.getDeclarations().childIterable()) {
+      CssDeclarationNode declaration = (CssDeclarationNode) child;
+      String suffix = isImportant(declaration) ? IMPORTANT_SUFFIX : "";
+      for (String family : getFamilies(declaration.getPropertyName().getPropertyName())) {
+        keys.add(family + suffix);
+      }
+    }
+    return keys;
+  }
+}
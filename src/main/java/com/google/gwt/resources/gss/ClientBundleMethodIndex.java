@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.gwt.core.ext.typeinfo.JClassType;
+import com.google.gwt.core.ext.typeinfo.JMethod;
+import com.google.gwt.core.ext.typeinfo.JPrimitiveType;
+import com.google.gwt.core.ext.typeinfo.JType;
+import com.google.gwt.core.ext.typeinfo.NotFoundException;
+import com.google.gwt.resources.ext.ResourceGeneratorUtil;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the methods of a ClientBundle by dotted path, e.g. {@code nested.image} for the method
+ * {@code image()} of the bundle returned by the method {@code nested()}. It resolves the paths
+ * used by {@code resourceUrl()}, {@code value()} and {@code gwt-sprite} the same way as
+ * {@link ResourceGeneratorUtil#getMethodByPath} does.
+ * <p>
+ * Each path is resolved once, from the method of its parent path, and the result is kept for the
+ * whole generation of the bundle. Paths that cannot be resolved are remembered as well.
+ */
+public class ClientBundleMethodIndex {
+  private final JClassType bundleType;
+  private final Map<String, JMethod> methods = new HashMap<String, JMethod>();
+  private final Map<String, String> errors = new HashMap<String, String>();
+
+  public ClientBundleMethodIndex(JClassType bundleType) {
+    this.bundleType = bundleType;
+  }
+
+  /**
+   * Returns the no-arg method designated by the dotted path.
+   *
+   * @throws NotFoundException if one of the elements of the path cannot be resolved
+   */
+  public JMethod getMethod(String path) throws NotFoundException {
+    JMethod method = methods.get(path);
+    if (method != null) {
+      return method;
+    }
+
+    String error = errors.get(path);
+    if (error != null) {
+      throw new NotFoundException(error);
+    }
+
+    try {
+      method = resolve(path);
+    } catch (NotFoundException e) {
+      errors.put(path, e.getMessage());
+      throw e;
+    }
+
+    methods.put(path, method);
+    return method;
+  }
+
+  /**
+   * Returns the no-arg method designated by the dotted path and checks that it returns the
+   * expected type.
+   *
+   * @throws NotFoundException if the path cannot be resolved or if the method doesn't return the
+   *                           expected type
+   */
+  public JMethod getMethod(String path, JType expectedReturnType) throws NotFoundException {
+    JMethod method = getMethod(path);
+    JType returnType = method.getReturnType();
+
+    JPrimitiveType expectedIsPrimitive = expectedReturnType.isPrimitive();
+    boolean matches;
+    if (expectedIsPrimitive != null) {
+      matches = expectedIsPrimitive.equals(returnType);
+    } else {
+      JClassType returnIsClassType = returnType.isClassOrInterface();
+      matches = returnIsClassType != null &&
+          expectedReturnType.isClassOrInterface().isAssignableFrom(returnIsClassType);
+    }
+
+    if (!matches) {
+      throw new NotFoundException("Expecting return type "
+          + expectedReturnType.getQualifiedSourceName() + " found "
+          + returnType.getQualifiedSourceName());
+    }
+    return method;
+  }
+
+  private JMethod resolve(String path) throws NotFoundException {
+    int lastDot = path.lastIndexOf('.');
+    JType ownerType = lastDot < 0 ? bundleType : getMethod(path.substring(0, lastDot))
+        .getReturnType();
+    String name = path.substring(lastDot + 1);
+
+    JClassType ownerClassType = ownerType.isClassOrInterface();
+    if (ownerClassType == null) {
+      throw new NotFoundException("Cannot resolve member " + name + " on type "
+          + ownerType.getQualifiedSourceName());
+    }
+
+    return ResourceGeneratorUtil.getMethodByPath(ownerClassType, Collections.singletonList(name),
+        null);
+  }
+}
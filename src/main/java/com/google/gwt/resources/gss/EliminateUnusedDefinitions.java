@@ -0,0 +1,292 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssCompositeValueNode;
+import com.google.common.css.compiler.ast.CssConstantReferenceNode;
+import com.google.common.css.compiler.ast.CssDeclarationNode;
+import com.google.common.css.compiler.ast.CssDefinitionNode;
+import com.google.common.css.compiler.ast.CssFontFaceNode;
+import com.google.common.css.compiler.ast.CssKeyframesNode;
+import com.google.common.css.compiler.ast.CssLiteralNode;
+import com.google.common.css.compiler.ast.CssMixinDefinitionNode;
+import com.google.common.css.compiler.ast.CssMixinNode;
+import com.google.common.css.compiler.ast.CssNode;
+import com.google.common.css.compiler.ast.CssNumericNode;
+import com.google.common.css.compiler.ast.CssPriorityNode;
+import com.google.common.css.compiler.ast.CssStringNode;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.MutatingVisitController;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Removes the definitions that are never used:
+ * <ul>
+ * <li>{@code @def} constants that are neither referenced by a live node nor exposed by an accessor
+ * of the {@link com.google.gwt.resources.client.GssResource} interface,</li>
+ * <li>{@code @defmixin} definitions that are never called by a live node,</li>
+ * <li>optionally, {@code @keyframes} never referenced by an {@code animation} or
+ * {@code animation-name} declaration and {@code @font-face} rules whose family is never used by a
+ * {@code font} or {@code font-family} declaration.</li>
+ * </ul>
+ * A definition only referenced by unused definitions is unused too. {@code @keyframes} and
+ * {@code @font-face} rules are all kept as soon as an animation or font value can't be known at
+ * compile time.
+ */
+public class EliminateUnusedDefinitions extends DefaultTreeVisitor implements CssCompilerPass {
+  private static final String CONSTANT = "def:";
+  private static final String MIXIN = "mixin:";
+
+  private class ReferenceCollector extends DefaultTreeVisitor {
+    private final Deque<String> owners = new ArrayDeque<String>();
+    private boolean inFontFace;
+
+    @Override
+    public boolean enterDefinition(CssDefinitionNode node) {
+      owners.push(CONSTANT + node.getName().getValue());
+      return true;
+    }
+
+    @Override
+    public void leaveDefinition(CssDefinitionNode node) {
+      owners.pop();
+    }
+
+    @Override
+    public boolean enterMixinDefinition(CssMixinDefinitionNode node) {
+      owners.push(MIXIN + node.getDefinitionName());
+      return true;
+    }
+
+    @Override
+    public void leaveMixinDefinition(CssMixinDefinitionNode node) {
+      owners.pop();
+    }
+
+    @Override
+    public boolean enterMixin(CssMixinNode node) {
+      addReference(MIXIN + node.getDefinitionName());
+      return true;
+    }
+
+    @Override
+    public boolean enterValueNode(CssValueNode node) {
+      collectConstantReference(node);
+      return true;
+    }
+
+    @Override
+    public boolean enterArgumentNode(CssValueNode node) {
+      collectConstantReference(node);
+      return true;
+    }
+
+    @Override
+    public boolean enterFontFace(CssFontFaceNode node) {
+      inFontFace = true;
+      return true;
+    }
+
+    @Override
+    public void leaveFontFace(CssFontFaceNode node) {
+      inFontFace = false;
+    }
+
+    @Override
+    public boolean enterDeclaration(CssDeclarationNode declaration) {
+      if (inFontFace) {
+        return true;
+      }
+
+      String propertyName = CascadeConflictIndex.stripVendorPrefix(
+          declaration.getPropertyName().getPropertyName());
+
+      if ("animation".equals(propertyName) || "animation-name".equals(propertyName)) {
+        keepAllKeyframes |= !collectTokens(declaration.getPropertyValue().getChildren(),
+            usedAnimationTokens);
+      } else if ("font".equals(propertyName) || "font-family".equals(propertyName)) {
+        List<String> tokens = new ArrayList<String>();
+        keepAllFontFaces |= !collectTokens(declaration.getPropertyValue().getChildren(), tokens);
+        for (String token : tokens) {
+          usedFontText.append(token).append(' ');
+        }
+      }
+      return true;
+    }
+
+    private void collectConstantReference(CssValueNode node) {
+      if (node instanceof CssConstantReferenceNode) {
+        addReference(CONSTANT + node.getValue());
+      }
+    }
+
+    private void addReference(String reference) {
+      if (owners.isEmpty()) {
+        liveDefinitions.add(reference);
+      } else {
+        references.put(owners.peek(), reference);
+      }
+    }
+  }
+
+  private final MutatingVisitController visitController;
+  private final Set<String> exposedConstants;
+  private final boolean eliminateKeyframesAndFontFaces;
+
+  private Set<String> liveDefinitions;
+  private SetMultimap<String, String> references;
+  private Set<String> usedAnimationTokens;
+  private StringBuilder usedFontText;
+  private boolean keepAllKeyframes;
+  private boolean keepAllFontFaces;
+
+  /**
+   * @param exposedConstants names of the constants that must be kept because they are exposed
+   * by an accessor
+   * @param eliminateKeyframesAndFontFaces true to also remove unused {@code @keyframes} and
+   * {@code @font-face} rules
+   */
+  public EliminateUnusedDefinitions(MutatingVisitController visitController,
+      Set<String> exposedConstants, boolean eliminateKeyframesAndFontFaces) {
+    this.visitController = visitController;
+    this.exposedConstants = exposedConstants;
+    this.eliminateKeyframesAndFontFaces = eliminateKeyframesAndFontFaces;
+  }
+
+  @Override
+  public void runPass() {
+    liveDefinitions = new HashSet<String>();
+    references = HashMultimap.create();
+    usedAnimationTokens = new HashSet<String>();
+    usedFontText = new StringBuilder();
+    keepAllKeyframes = false;
+    keepAllFontFaces = false;
+
+    for (String constant : exposedConstants) {
+      liveDefinitions.add(CONSTANT + constant);
+    }
+
+    visitController.startVisit(new ReferenceCollector());
+
+    // Mark as live the definitions referenced by live definitions
+    Deque<String> toVisit = new ArrayDeque<String>(liveDefinitions);
+    while (!toVisit.isEmpty()) {
+      for (String reference : references.get(toVisit.pop())) {
+        if (liveDefinitions.add(reference)) {
+          toVisit.push(reference);
+        }
+      }
+    }
+
+    visitController.startVisit(this);
+  }
+
+  @Override
+  public boolean enterDefinition(CssDefinitionNode node) {
+    if (!liveDefinitions.contains(CONSTANT + node.getName().getValue())) {
+      visitController.removeCurrentNode();
+    }
+    return false;
+  }
+
+  @Override
+  public boolean enterMixinDefinition(CssMixinDefinitionNode node) {
+    if (!liveDefinitions.contains(MIXIN + node.getDefinitionName())) {
+      visitController.removeCurrentNode();
+    }
+    return false;
+  }
+
+  @Override
+  public boolean enterKeyframesRule(CssKeyframesNode node) {
+    if (eliminateKeyframesAndFontFaces && !keepAllKeyframes) {
+      List<String> names = new ArrayList<String>();
+      if (collectTokens(node.getParameters(), names) && !usedAnimationTokens.containsAll(names)) {
+        visitController.removeCurrentNode();
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean enterFontFace(CssFontFaceNode node) {
+    if (eliminateKeyframesAndFontFaces && !keepAllFontFaces) {
+      String family = getFontFamily(node);
+      if (family != null && !usedFontText.toString().contains(family)) {
+        visitController.removeCurrentNode();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the normalized family defined by the {@code @font-face} rule or null if it can't be
+   * determined.
+   */
+  private String getFontFamily(CssFontFaceNode node) {
+    for (CssNode child : node.getBlock().childIterable()) {
+      if (child instanceof CssDeclarationNode && "font-family".equals(
+          ((CssDeclarationNode) child).getPropertyName().getPropertyName())) {
+        List<String> tokens = new ArrayList<String>();
+        if (!collectTokens(((CssDeclarationNode) child).getPropertyValue().getChildren(), tokens)) {
+          return null;
+        }
+
+        StringBuilder family = new StringBuilder();
+        for (String token : tokens) {
+          family.append(token).append(' ');
+        }
+        return family.toString();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds the normalized tokens of the values to the collection. Returns false if one of the value
+   * is not known at compile time.
+   */
+  private static boolean collectTokens(List<? extends CssValueNode> values,
+      Collection<String> tokens) {
+    for (CssValueNode value : values) {
+      if (value instanceof CssCompositeValueNode) {
+        if (!collectTokens(((CssCompositeValueNode) value).getValues(), tokens)) {
+          return false;
+        }
+      } else if (value instanceof CssStringNode) {
+        tokens.add(((CssStringNode) value).getConcreteValue().toLowerCase(Locale.ROOT));
+      } else if (value instanceof CssLiteralNode || value instanceof CssNumericNode) {
+        tokens.add(value.toString().toLowerCase(Locale.ROOT));
+      } else if (!(value instanceof CssPriorityNode)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -25,22 +25,73 @@ import com.google.common.css.compiler.ast.CssValueNode;
 import com.google.common.css.compiler.ast.DefaultTreeVisitor;
 import com.google.common.css.compiler.ast.MutatingVisitController;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
+/**
+ * Collects the external classes declared with the {@code @external} at-rule and removes the
+ * at-rules from the tree.
+ * <p>
+ * The wildcard patterns ({@code @external 'foo-*'}) are compiled into a trie and the class
+ * selectors are matched against it while the tree is visited. Classes visited before the
+ * declaration of a pattern are matched once the visit is over.
+ */
 public class ExternalClassesCollector extends DefaultTreeVisitor implements CssCompilerPass {
   public static final String EXTERNAL_AT_RULE = "external";
   private static final String STAR_PREFIX = "*";
 
+  /**
+   * Trie of the prefixes of the wildcard patterns.
+   */
+  private static class PrefixTrie {
+    private final Map<Character, PrefixTrie> children = new HashMap<Character, PrefixTrie>();
+    private boolean terminal;
+
+    private void add(String prefix) {
+      PrefixTrie node = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        PrefixTrie child = node.children.get(prefix.charAt(i));
+        if (child == null) {
+          child = new PrefixTrie();
+          node.children.put(prefix.charAt(i), child);
+        }
+        node = child;
+      }
+      node.terminal = true;
+    }
+
+    /**
+     * Returns true if one of the prefixes is a prefix of the style class.
+     */
+    private boolean matches(String styleClass) {
+      PrefixTrie node = this;
+      for (int i = 0; !node.terminal; i++) {
+        if (i == styleClass.length()) {
+          return false;
+        }
+        node = node.children.get(styleClass.charAt(i));
+        if (node == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean isEmpty() {
+      return !terminal && children.isEmpty();
+    }
+  }
+
   private final MutatingVisitController visitController;
 
-  private SortedSet<String> classNames;
   private Set<String> externalClassNames;
-  private List<String> externalClassPrefixes;
+  // classes not matched by the patterns known when they were visited
+  private Set<String> unmatchedClassNames;
+  private PrefixTrie externalClassPrefixes;
   private boolean matchAll;
 
   public ExternalClassesCollector(MutatingVisitController visitController) {
@@ -50,8 +101,8 @@ public class ExternalClassesCollector extends DefaultTreeVisitor implements CssC
   @Override
   public void runPass() {
     externalClassNames = new HashSet<String>();
-    externalClassPrefixes = new ArrayList<String>();
-    classNames = new TreeSet<String>();
+    unmatchedClassNames = new HashSet<String>();
+    externalClassPrefixes = new PrefixTrie();
 
     visitController.startVisit(this);
   }
@@ -68,23 +119,26 @@ public class ExternalClassesCollector extends DefaultTreeVisitor implements CssC
 
   @Override
   public void leaveClassSelector(CssClassSelectorNode classSelector) {
-    classNames.add(classSelector.getRefinerName());
-  }
+    String styleClass = classSelector.getRefinerName();
 
-  public Set<String> getExternalClassNames() {
-    if (matchAll) {
-      return classNames;
+    if (matchAll || externalClassPrefixes.matches(styleClass)) {
+      externalClassNames.add(styleClass);
+    } else {
+      unmatchedClassNames.add(styleClass);
     }
+  }
 
-    for (String prefix : externalClassPrefixes) {
-      for (String styleClass : classNames.tailSet(prefix)) {
-        if (styleClass.startsWith(prefix)) {
+  public Set<String> getExternalClassNames() {
+    if (matchAll || !externalClassPrefixes.isEmpty()) {
+      for (Iterator<String> it = unmatchedClassNames.iterator(); it.hasNext(); ) {
+        String styleClass = it.next();
+        if (matchAll || externalClassPrefixes.matches(styleClass)) {
           externalClassNames.add(styleClass);
-        } else {
-          break;
+          it.remove();
         }
       }
     }
+
     return externalClassNames;
   }
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.css.compiler.ast.CssBlockNode;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssMediaRuleNode;
+import com.google.common.css.compiler.ast.CssNode;
+import com.google.common.css.compiler.ast.CssTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Moves the top-level {@code @media} rules that never apply to a screen, e.g.
+ * {@code @media print}, out of a tree into a new tree. The extracted css can then be injected
+ * separately, with a {@code media} attribute, so that it doesn't delay the rendering of the page.
+ * <p>
+ * A rule is extracted only if each query of its media query list targets a non-screen media type.
+ * Queries without media type, using {@code not} or targeting an unknown media type are considered
+ * as applying to screens.
+ * <p>
+ * As the extracted css is injected after the rest of the css, a rule is extracted only if it can
+ * be moved after all the nodes following it without changing the cascade, according to a
+ * {@link CascadeConflictIndex}. Otherwise it is kept at its place.
+ */
+public class ExtractNonScreenMediaRules implements CssCompilerPass {
+  private static final Set<String> NON_SCREEN_MEDIA_TYPES =
+      ImmutableSet.of("print", "speech", "aural", "braille", "embossed");
+
+  private final CssTree cssTree;
+  private final CssTree extractedTree;
+  private final Set<String> mediaQueries = new LinkedHashSet<String>();
+
+  public ExtractNonScreenMediaRules(CssTree cssTree) {
+    this.cssTree = cssTree;
+    this.extractedTree = new CssTree(cssTree.getSourceCode());
+  }
+
+  /**
+   * Returns the tree containing the extracted rules, empty if no rule was extracted.
+   */
+  public CssTree getExtractedTree() {
+    return extractedTree;
+  }
+
+  /**
+   * Returns the media queries of the extracted rules, that can be used as value of the media
+   * attribute of the stylesheet containing them.
+   */
+  public Set<String> getMediaQueries() {
+    return Collections.unmodifiableSet(mediaQueries);
+  }
+
+  @Override
+  public void runPass() {
+    CssBlockNode body = cssTree.getRoot().getBody();
+    List<CssMediaRuleNode> extracted = new ArrayList<CssMediaRuleNode>();
+    // Records the nodes staying in the tree in reverse order: moving a rule at the end of the tree
+    // is moving it before all the recorded nodes, i.e. just after the position 0.
+    CascadeConflictIndex conflictIndex = new CascadeConflictIndex();
+    int position = 0;
+
+    // start by the end in order to keep the indexes valid
+    for (int i = body.numChildren() - 1; i >= 0; i--) {
+      CssNode child = body.getChildAt(i);
+
+      if (child instanceof CssMediaRuleNode && conflictIndex.canMoveAfter(child, 0)) {
+        String query = Joiner.on(' ').join(((CssMediaRuleNode) child).getParameters());
+        if (isNonScreenQuery(query)) {
+          body.replaceChildAt(i, Collections.<CssNode>emptyList());
+          extracted.add(0, (CssMediaRuleNode) child);
+          continue;
+        }
+      }
+
+      conflictIndex.record(child, ++position);
+    }
+
+    for (CssMediaRuleNode mediaRule : extracted) {
+      extractedTree.getRoot().getBody().addChildToBack(mediaRule.deepCopy());
+      mediaQueries.add(Joiner.on(' ').join(mediaRule.getParameters()));
+    }
+  }
+
+  static boolean isNonScreenQuery(String mediaQueryList) {
+    for (String query : mediaQueryList.split(",")) {
+      String[] tokens = query.trim().toLowerCase(Locale.ROOT).split("\\s+");
+      int typeIndex = "only".equals(tokens[0]) ? 1 : 0;
+
+      if (typeIndex >= tokens.length || !NON_SCREEN_MEDIA_TYPES.contains(tokens[typeIndex])) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
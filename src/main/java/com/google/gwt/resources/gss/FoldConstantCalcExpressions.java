@@ -0,0 +1,257 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssFunctionNode;
+import com.google.common.css.compiler.ast.CssMathNode;
+import com.google.common.css.compiler.ast.CssNumericNode;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.MutatingVisitController;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replaces the {@code calc()} expressions that can be computed at compile time by their result,
+ * e.g. {@code calc(10px + 4px)} by {@code 14px}.
+ * <p>
+ * An expression is folded only if all its operands are numbers, the operands of an addition or a
+ * subtraction have the same unit, a multiplication has at most one operand with a unit and a
+ * division is made by a number without unit. Other expressions, like {@code calc(100% - 10px)},
+ * need the layout to be computed and are kept untouched. As in CSS, the {@code +} and {@code -}
+ * operators have to be surrounded by whitespace: {@code calc(10px+4px)} is kept untouched.
+ * Numbers in scientific notation, e.g. {@code 1e3px}, are not folded either.
+ * <p>
+ * Negative results are not folded: browsers clamp the result of {@code calc()} to the range
+ * allowed by the property, e.g. 0 for {@code width}, whereas a negative literal would make the
+ * whole declaration invalid.
+ */
+public class FoldConstantCalcExpressions extends DefaultTreeVisitor implements CssCompilerPass {
+
+  private static class Dimension {
+    private final BigDecimal number;
+    private final String unit;
+
+    private Dimension(BigDecimal number, String unit) {
+      this.number = number;
+      this.unit = unit;
+    }
+
+    private boolean hasUnit() {
+      return !unit.isEmpty();
+    }
+  }
+
+  /**
+   * Recursive descent evaluator of the expression of a {@code calc()} function. Each method
+   * returns null if the expression cannot be computed at compile time.
+   */
+  private static class Evaluator {
+    private final String expression;
+    private int index;
+
+    private Evaluator(String expression) {
+      this.expression = expression;
+    }
+
+    private Dimension evaluate() {
+      Dimension result = sum();
+      skipSpaces();
+      return index == expression.length() ? result : null;
+    }
+
+    private Dimension sum() {
+      Dimension result = product();
+
+      while (result != null) {
+        int operatorStart = index;
+        skipSpaces();
+        char operator = peek();
+        if (operator != '+' && operator != '-') {
+          index = operatorStart;
+          break;
+        }
+        index++;
+
+        // without the whitespace, the sign belongs to a number, e.g. 10px -4px or 10px+4px
+        if (index - 1 == operatorStart || !Character.isWhitespace(peek())) {
+          return null;
+        }
+
+        Dimension operand = product();
+        if (operand == null || !operand.unit.equals(result.unit)) {
+          return null;
+        }
+
+        result = new Dimension(operator == '+' ? result.number.add(operand.number) :
+            result.number.subtract(operand.number), result.unit);
+      }
+      return result;
+    }
+
+    private Dimension product() {
+      Dimension result = operand();
+
+      while (result != null) {
+        int operatorStart = index;
+        skipSpaces();
+        char operator = peek();
+        if (operator != '*' && operator != '/') {
+          index = operatorStart;
+          break;
+        }
+        index++;
+
+        Dimension operand = operand();
+        if (operand == null || operand.hasUnit() && (result.hasUnit() || operator == '/')) {
+          return null;
+        }
+
+        if (operator == '*') {
+          result = new Dimension(result.number.multiply(operand.number),
+              result.hasUnit() ? result.unit : operand.unit);
+        } else {
+          if (operand.number.signum() == 0) {
+            return null;
+          }
+          try {
+            result = new Dimension(result.number.divide(operand.number), result.unit);
+          } catch (ArithmeticException e) {
+            // the quotient doesn't have an exact decimal representation
+            return null;
+          }
+        }
+      }
+      return result;
+    }
+
+    private Dimension operand() {
+      skipSpaces();
+
+      String lowerCase = expression.substring(index).toLowerCase(Locale.ROOT);
+      for (String calc : CALC_FUNCTIONS) {
+        if (lowerCase.startsWith(calc + "(")) {
+          index += calc.length();
+          break;
+        }
+      }
+
+      if (peek() == '(') {
+        index++;
+        Dimension result = sum();
+        skipSpaces();
+        if (result == null || peek() != ')') {
+          return null;
+        }
+        index++;
+        return result;
+      }
+
+      return number();
+    }
+
+    private Dimension number() {
+      int start = index;
+      if (peek() == '+' || peek() == '-') {
+        index++;
+      }
+
+      int digitsStart = index;
+      while (Character.isDigit(peek()) || peek() == '.') {
+        index++;
+      }
+      if (index == digitsStart) {
+        return null;
+      }
+
+      // the exponent of the scientific notation, e.g. 1e3px, is not supported
+      if ((peek() == 'e' || peek() == 'E') && (Character.isDigit(peek(1)) ||
+          (peek(1) == '+' || peek(1) == '-') && Character.isDigit(peek(2)))) {
+        return null;
+      }
+
+      BigDecimal number;
+      try {
+        number = new BigDecimal(expression.substring(start, index));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+
+      int unitStart = index;
+      while (Character.isLetter(peek()) || peek() == '%') {
+        index++;
+      }
+
+      return new Dimension(number, expression.substring(unitStart, index).toLowerCase(Locale.ROOT));
+    }
+
+    private void skipSpaces() {
+      while (Character.isWhitespace(peek())) {
+        index++;
+      }
+    }
+
+    private char peek() {
+      return peek(0);
+    }
+
+    private char peek(int offset) {
+      int position = index + offset;
+      return position < expression.length() ? expression.charAt(position) : 0;
+    }
+  }
+
+  private static final List<String> CALC_FUNCTIONS =
+      ImmutableList.of("calc", "-webkit-calc", "-moz-calc");
+
+  private final MutatingVisitController visitController;
+
+  public FoldConstantCalcExpressions(MutatingVisitController visitController) {
+    this.visitController = visitController;
+  }
+
+  @Override
+  public void leaveFunctionNode(CssFunctionNode functionNode) {
+    if (!CALC_FUNCTIONS.contains(functionNode.getFunctionName())) {
+      return;
+    }
+
+    List<CssValueNode> arguments = functionNode.getArguments().getChildren();
+    if (arguments.size() != 1 || !(arguments.get(0) instanceof CssMathNode)) {
+      return;
+    }
+
+    Dimension result = new Evaluator(arguments.get(0).getValue()).evaluate();
+    if (result == null || result.number.signum() < 0) {
+      return;
+    }
+
+    CssNumericNode numericNode = new CssNumericNode(
+        result.number.stripTrailingZeros().toPlainString(), result.unit,
+        functionNode.getSourceCodeLocation());
+    visitController.replaceCurrentBlockChildWith(ImmutableList.of(numericNode), false);
+  }
+
+  @Override
+  public void runPass() {
+    visitController.startVisit(this);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.css.MinimalSubstitutionMap;
+import com.google.common.css.SubstitutionMap;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SubstitutionMap allocating the shortest available names of one namespace shared by all the
+ * style classes of the compilation. The keys have to be unique across the compilation, e.g. the
+ * qualified name of the resource type followed by the name of the style class.
+ * <p>
+ * Names can be reserved at any time in order to never be allocated, e.g. the names of external
+ * classes. The names allocated by a previous compilation can be restored with
+ * {@link #put(String, String)} so that the existing classes keep their names and only the new
+ * classes get fresh names.
+ */
+public class GlobalMinimalSubstitutionMap implements SubstitutionMap {
+  private final MinimalSubstitutionMap nameGenerator = new MinimalSubstitutionMap();
+  private final String prefix;
+  private final Map<String, String> names = new HashMap<String, String>();
+  private final Set<String> reservedNames = new HashSet<String>();
+  private int counter;
+
+  /**
+   * @param prefix prefix added to every allocated name
+   */
+  public GlobalMinimalSubstitutionMap(String prefix) {
+    this.prefix = prefix;
+  }
+
+  @Override
+  public String get(String key) {
+    String name = names.get(key);
+
+    if (name == null) {
+      do {
+        name = prefix + nameGenerator.get(String.valueOf(counter++));
+      } while (reservedNames.contains(name));
+
+      names.put(key, name);
+      reservedNames.add(name);
+    }
+
+    return name;
+  }
+
+  /**
+   * Prevents the name from being allocated later.
+   */
+  public void reserve(String name) {
+    reservedNames.add(name);
+  }
+
+  /**
+   * Assigns a name to the key, typically a name read from the renaming map of a previous
+   * compilation. The name is reserved and won't be allocated to another key.
+   */
+  public void put(String key, String name) {
+    names.put(key, name);
+    reservedNames.add(name);
+  }
+
+  /**
+   * Returns the names assigned so far, by key.
+   */
+  public Map<String, String> getMappings() {
+    return Collections.unmodifiableMap(names);
+  }
+}
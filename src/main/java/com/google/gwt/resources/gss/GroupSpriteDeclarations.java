@@ -0,0 +1,301 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static com.google.gwt.resources.gss.ImageSpriteCreator.SPRITE_PROPERTY_NAME;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.css.compiler.ast.CssBlockNode;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssDeclarationNode;
+import com.google.common.css.compiler.ast.CssLiteralNode;
+import com.google.common.css.compiler.ast.CssNode;
+import com.google.common.css.compiler.ast.CssPropertyNode;
+import com.google.common.css.compiler.ast.CssPropertyValueNode;
+import com.google.common.css.compiler.ast.CssRulesetNode;
+import com.google.common.css.compiler.ast.CssSelectorNode;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.MutatingVisitController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups the {@code gwt-sprite} declarations referencing the same image in one ruleset listing
+ * all the selectors, so that the sprite is expanded only once by the {@link ImageSpriteCreator}
+ * instead of once per ruleset.
+ * <p>
+ * The sprite declaration of a ruleset is moved up to the ruleset of the first sprite of the same
+ * image only if the move cannot change the cascade according to a {@link CascadeConflictIndex},
+ * the sprite being considered as setting all the properties it expands to. The other declarations
+ * of the ruleset stay at their place.
+ */
+public class GroupSpriteDeclarations extends DefaultTreeVisitor implements CssCompilerPass {
+  private static final String[] SPRITE_PROPERTIES = {"height", "width", "overflow", "background"};
+
+  private static final Set<String> SPRITE_FAMILIES = new HashSet<String>();
+
+  static {
+    for (String property : SPRITE_PROPERTIES) {
+      SPRITE_FAMILIES.addAll(CascadeConflictIndex.getFamilies(property));
+    }
+  }
+
+  private static class Anchor {
+    private final int index;
+    private final int position;
+    private final CssRulesetNode ruleset;
+    private final CssDeclarationNode sprite;
+    private final Set<String> selectors = new HashSet<String>();
+    private final List<CssSelectorNode> mergedSelectors = new ArrayList<CssSelectorNode>();
+
+    private Anchor(int index, int position, CssRulesetNode ruleset, CssDeclarationNode sprite) {
+      this.index = index;
+      this.position = position;
+      this.ruleset = ruleset;
+      this.sprite = sprite;
+
+      for (CssSelectorNode selector : ruleset.getSelectors().childIterable()) {
+        selectors.add(selector.toString());
+      }
+    }
+
+    private void merge(CssRulesetNode other) {
+      for (CssSelectorNode selector : other.getSelectors().childIterable()) {
+        if (selectors.add(selector.toString())) {
+          mergedSelectors.add(selector);
+        }
+      }
+    }
+
+    /**
+     * Returns the nodes replacing the anchor ruleset: the declarations preceding the sprite, the
+     * sprite with all the selectors and the declarations following the sprite.
+     */
+    private List<CssNode> getReplacement() {
+      CssRulesetNode before = new CssRulesetNode();
+      CssRulesetNode spriteRuleset = new CssRulesetNode();
+      CssRulesetNode after = new CssRulesetNode();
+
+      CssRulesetNode current = before;
+      for (CssNode declaration : ruleset.getDeclarations().childIterable()) {
+        if (declaration == sprite) {
+          spriteRuleset.addDeclaration(declaration.deepCopy());
+          current = after;
+        } else {
+          current.addDeclaration(declaration.deepCopy());
+        }
+      }
+
+      List<CssNode> replacement = new ArrayList<CssNode>();
+      for (CssRulesetNode part : ImmutableList.of(before, spriteRuleset, after)) {
+        if (part.getDeclarations().isEmpty()) {
+          continue;
+        }
+
+        for (CssSelectorNode selector : ruleset.getSelectors().childIterable()) {
+          part.addSelector(selector.deepCopy());
+        }
+        if (part == spriteRuleset) {
+          for (CssSelectorNode selector : mergedSelectors) {
+            part.addSelector(selector.deepCopy());
+          }
+        }
+        part.setSourceCodeLocation(ruleset.getSourceCodeLocation());
+        replacement.add(part);
+      }
+      return replacement;
+    }
+  }
+
+  private final MutatingVisitController visitController;
+
+  public GroupSpriteDeclarations(MutatingVisitController visitController) {
+    this.visitController = visitController;
+  }
+
+  @Override
+  public boolean enterBlock(CssBlockNode block) {
+    CascadeConflictIndex conflictIndex = new CascadeConflictIndex();
+    Map<String, Anchor> anchorsByImage = new HashMap<String, Anchor>();
+    List<Anchor> anchors = new ArrayList<Anchor>();
+
+    List<CssNode> children = block.getChildren();
+    // replacement of each child, by child index. null if the child is kept as is
+    List<List<CssNode>> replacements = new ArrayList<List<CssNode>>(children.size());
+    boolean grouped = false;
+
+    for (int i = 0; i < children.size(); i++) {
+      CssNode child = children.get(i);
+      int position = i + 1;
+      replacements.add(null);
+
+      if (!(child instanceof CssRulesetNode)) {
+        conflictIndex.record(child, position);
+        continue;
+      }
+
+      CssRulesetNode ruleset = (CssRulesetNode) child;
+      CssDeclarationNode sprite = getSpriteDeclaration(ruleset);
+
+      if (sprite == null || !CascadeConflictIndex.isAnalyzable(ruleset) ||
+          MergeNonAdjacentRulesetNodesWithSameDeclarations.hasProblematicSelectors(ruleset)) {
+        conflictIndex.record(expandSprites(ruleset), position);
+        continue;
+      }
+
+      String image = sprite.getPropertyValue().toString();
+      Anchor anchor = anchorsByImage.get(image);
+      CssRulesetNode spriteOnly = createSpriteOnlyRuleset(ruleset);
+
+      if (anchor != null && !isSpriteOverriddenBefore(ruleset, sprite) &&
+          conflictIndex.canMoveAfter(spriteOnly, anchor.position)) {
+        anchor.merge(ruleset);
+
+        CssRulesetNode rest = removeSprite(ruleset, sprite);
+        replacements.set(i, rest.getDeclarations().isEmpty() ? Collections.<CssNode>emptyList() :
+            Collections.<CssNode>singletonList(rest));
+        grouped = true;
+
+        conflictIndex.record(spriteOnly, anchor.position);
+        conflictIndex.record(rest, position);
+      } else {
+        anchor = new Anchor(i, position, ruleset, sprite);
+        anchorsByImage.put(image, anchor);
+        anchors.add(anchor);
+        conflictIndex.record(expandSprites(ruleset), position);
+      }
+    }
+
+    if (grouped) {
+      for (Anchor anchor : anchors) {
+        if (!anchor.mergedSelectors.isEmpty()) {
+          replacements.set(anchor.index, anchor.getReplacement());
+        }
+      }
+
+      // replace the children starting by the end in order to keep the indexes valid.
+      for (int i = children.size() - 1; i >= 0; i--) {
+        if (replacements.get(i) != null) {
+          block.replaceChildAt(i, replacements.get(i));
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the unique sprite declaration of the ruleset or null if the ruleset doesn't contain
+   * exactly one sprite declaration.
+   */
+  private CssDeclarationNode getSpriteDeclaration(CssRulesetNode ruleset) {
+    CssDeclarationNode sprite = null;
+    for (CssNode child : ruleset.getDeclarations().childIterable()) {
+      if (isSprite(child)) {
+        if (sprite != null) {
+          return null;
+        }
+        sprite = (CssDeclarationNode) child;
+      }
+    }
+    return sprite;
+  }
+
+  private boolean isSprite(CssNode node) {
+    return node instanceof CssDeclarationNode && SPRITE_PROPERTY_NAME.equals(
+        ((CssDeclarationNode) node).getPropertyName().getPropertyName());
+  }
+
+  /**
+   * Returns true if a declaration preceding the sprite sets one of the properties set by the
+   * sprite. Once the sprite is moved up, that declaration would win over the sprite.
+   */
+  private boolean isSpriteOverriddenBefore(CssRulesetNode ruleset, CssDeclarationNode sprite) {
+    for (CssNode child : ruleset.getDeclarations().childIterable()) {
+      if (child == sprite) {
+        return false;
+      }
+
+      String propertyName = ((CssDeclarationNode) child).getPropertyName().getPropertyName();
+      if (!Collections.disjoint(SPRITE_FAMILIES, CascadeConflictIndex.getFamilies(propertyName))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a copy of the ruleset where the sprite declarations are replaced by declarations of
+   * the properties they set, as seen by the {@link CascadeConflictIndex}.
+   */
+  private CssRulesetNode expandSprites(CssRulesetNode ruleset) {
+    CssRulesetNode expanded = createRulesetWithSelectors(ruleset);
+    for (CssNode child : ruleset.getDeclarations().childIterable()) {
+      if (isSprite(child)) {
+        addSpriteProperties(expanded);
+      } else {
+        expanded.addDeclaration(child.deepCopy());
+      }
+    }
+    return expanded;
+  }
+
+  private CssRulesetNode createSpriteOnlyRuleset(CssRulesetNode ruleset) {
+    CssRulesetNode spriteOnly = createRulesetWithSelectors(ruleset);
+    addSpriteProperties(spriteOnly);
+    return spriteOnly;
+  }
+
+  private CssRulesetNode removeSprite(CssRulesetNode ruleset, CssDeclarationNode sprite) {
+    CssRulesetNode rest = createRulesetWithSelectors(ruleset);
+    for (CssNode child : ruleset.getDeclarations().childIterable()) {
+      if (child != sprite) {
+        rest.addDeclaration(child.deepCopy());
+      }
+    }
+    rest.setSourceCodeLocation(ruleset.getSourceCodeLocation());
+    return rest;
+  }
+
+  private CssRulesetNode createRulesetWithSelectors(CssRulesetNode ruleset) {
+    CssRulesetNode copy = new CssRulesetNode();
+    for (CssSelectorNode selector : ruleset.getSelectors().childIterable()) {
+      copy.addSelector(selector.deepCopy());
+    }
+    return copy;
+  }
+
+  private void addSpriteProperties(CssRulesetNode ruleset) {
+    for (String property : SPRITE_PROPERTIES) {
+      CssPropertyValueNode value = new CssPropertyValueNode(
+          ImmutableList.<CssValueNode>of(new CssLiteralNode("0")));
+      ruleset.addDeclaration(new CssDeclarationNode(new CssPropertyNode(property), value));
+    }
+  }
+
+  @Override
+  public void runPass() {
+    visitController.startVisit(this);
+  }
+}
@@ -25,9 +25,24 @@ import com.google.gwt.resources.ext.ResourceContext;
 
 public class GwtGssFunctionMapProvider extends DefaultGssFunctionMapProvider {
   private final ResourceContext context;
+  private final ClientBundleMethodIndex methodIndex;
+  private final int dataUrlInliningThreshold;
 
   public GwtGssFunctionMapProvider(ResourceContext context) {
+    this(context, new ClientBundleMethodIndex(context.getClientBundleType()), 0);
+  }
+
+  /**
+   * @param methodIndex              index used by resourceUrl() and value() to resolve the methods
+   *                                 of the bundle
+   * @param dataUrlInliningThreshold maximal size in bytes of the DataResources inlined as data urls
+   *                                 by resourceUrl(). 0 disables the inlining.
+   */
+  public GwtGssFunctionMapProvider(ResourceContext context, ClientBundleMethodIndex methodIndex,
+      int dataUrlInliningThreshold) {
     this.context = context;
+    this.methodIndex = methodIndex;
+    this.dataUrlInliningThreshold = dataUrlInliningThreshold;
   }
 
   @Override
@@ -37,8 +52,9 @@ public class GwtGssFunctionMapProvider extends DefaultGssFunctionMapProvider {
     return ImmutableMap.<String, GssFunction>builder().putAll(gssFunction)
         // TODO add a namespace for specific gwt function ?
         .put(EvalFunction.getName(), new EvalFunction())
-        .put(ValueFunction.getName(), new ValueFunction())
-        .put(ResourceUrlFunction.getName(), new ResourceUrlFunction(context))
+        .put(ValueFunction.getName(), new ValueFunction(methodIndex))
+        .put(ResourceUrlFunction.getName(), new ResourceUrlFunction(context, methodIndex,
+            dataUrlInliningThreshold))
         .build();
   }
 }
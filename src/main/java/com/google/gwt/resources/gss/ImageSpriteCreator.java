@@ -20,8 +20,8 @@ import static com.google.common.css.compiler.passes.PassUtil.ALTERNATE;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
-import com.google.common.collect.Lists;
 import com.google.common.css.SourceCodeLocation;
+import com.google.common.css.compiler.ast.CssBlockNode;
 import com.google.common.css.compiler.ast.CssCommentNode;
 import com.google.common.css.compiler.ast.CssCompilerPass;
 import com.google.common.css.compiler.ast.CssDeclarationNode;
@@ -29,13 +29,23 @@ import com.google.common.css.compiler.ast.CssFunctionArgumentsNode;
 import com.google.common.css.compiler.ast.CssFunctionNode;
 import com.google.common.css.compiler.ast.CssFunctionNode.Function;
 import com.google.common.css.compiler.ast.CssLiteralNode;
+import com.google.common.css.compiler.ast.CssMediaRuleNode;
+import com.google.common.css.compiler.ast.CssNode;
+import com.google.common.css.compiler.ast.CssNodesListNode;
+import com.google.common.css.compiler.ast.CssNumericNode;
 import com.google.common.css.compiler.ast.CssPropertyNode;
 import com.google.common.css.compiler.ast.CssPropertyValueNode;
+import com.google.common.css.compiler.ast.CssRootNode;
+import com.google.common.css.compiler.ast.CssRulesetNode;
+import com.google.common.css.compiler.ast.CssSelectorNode;
 import com.google.common.css.compiler.ast.CssValueNode;
 import com.google.common.css.compiler.ast.DefaultTreeVisitor;
 import com.google.common.css.compiler.ast.ErrorManager;
 import com.google.common.css.compiler.ast.GssError;
 import com.google.common.css.compiler.ast.MutatingVisitController;
+import com.google.gwt.core.ext.BadPropertyValueException;
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
 import com.google.gwt.core.ext.typeinfo.JClassType;
 import com.google.gwt.core.ext.typeinfo.JMethod;
 import com.google.gwt.core.ext.typeinfo.NotFoundException;
@@ -46,22 +56,78 @@ import com.google.gwt.resources.ext.ResourceContext;
 import com.google.gwt.resources.ext.ResourceGeneratorUtil;
 import com.google.gwt.resources.gss.ast.CssDotPathNode;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 public class ImageSpriteCreator extends DefaultTreeVisitor implements CssCompilerPass {
-  private static final String SPRITE_PROPERTY_NAME = "gwt-sprite";
+  static final String SPRITE_PROPERTY_NAME = "gwt-sprite";
+
+  // screens having at least two device pixels per css pixel
+  private static final String HIGH_DENSITY_MEDIA_QUERY =
+      "(-webkit-min-device-pixel-ratio:2),(min-resolution:192dpi)";
+
+  /**
+   * Geometry of an image as computed by the ImageResourceGenerator.
+   */
+  private static class SpriteGeometry {
+    private final int width;
+    private final int height;
+    // true if the image is not part of a composite image and is thus displayed at 0 0
+    private final boolean standalone;
+
+    private SpriteGeometry(int width, int height, boolean standalone) {
+      this.width = width;
+      this.height = height;
+      this.standalone = standalone;
+    }
+  }
 
   private final MutatingVisitController visitController;
   private final ErrorManager errorManager;
   private final ResourceContext context;
   private final JClassType imageResourceType;
+  private final ClientBundleMethodIndex methodIndex;
   private final String resourceThisPrefix;
+  private final boolean resolveGeometry;
+  private final Map<JMethod, SpriteGeometry> geometries = new HashMap<JMethod, SpriteGeometry>();
+  // media rules overriding the image of the sprites on high density screens, by ruleset
+  private final Map<CssRulesetNode, CssMediaRuleNode> highDensityRules =
+      new LinkedHashMap<CssRulesetNode, CssMediaRuleNode>();
 
   public ImageSpriteCreator(MutatingVisitController visitController, ResourceContext context,
       ErrorManager errorManager) {
+    this(visitController, context, errorManager, false);
+  }
+
+  public ImageSpriteCreator(MutatingVisitController visitController, ResourceContext context,
+      ErrorManager errorManager, boolean resolveGeometry) {
+    this(visitController, context, errorManager, resolveGeometry,
+        new ClientBundleMethodIndex(context.getClientBundleType()));
+  }
+
+  /**
+   * @param resolveGeometry if true, the size of the images and their position when they are not
+   *                        part of a composite image are written as literal values instead of
+   *                        being read from the ImageResource at runtime.
+   * @param methodIndex     index used to resolve the ImageResource methods of the bundle
+   */
+  public ImageSpriteCreator(MutatingVisitController visitController, ResourceContext context,
+      ErrorManager errorManager, boolean resolveGeometry, ClientBundleMethodIndex methodIndex) {
     this.visitController = visitController;
+    this.methodIndex = methodIndex;
     this.errorManager = errorManager;
     this.context = context;
+    this.resolveGeometry = resolveGeometry;
     this.imageResourceType = context.getGeneratorContext().getTypeOracle().findType(
         ImageResource.class.getName());
     this.resourceThisPrefix = context.getImplementationSimpleSourceName() + ".this";
@@ -84,10 +150,26 @@ public class ImageSpriteCreator extends DefaultTreeVisitor implements CssCompile
     assert imageResourceType != null;
 
     visitController.startVisit(this);
+
+    // add the media rules just after the rulesets so that they win over the background of the
+    // sprites
+    for (Map.Entry<CssRulesetNode, CssMediaRuleNode> entry : highDensityRules.entrySet()) {
+      CssRulesetNode ruleset = entry.getKey();
+      @SuppressWarnings("unchecked")
+      CssNodesListNode<CssNode> parent = (CssNodesListNode<CssNode>) ruleset.getParent();
+
+      List<CssNode> siblings = parent.getChildren();
+      for (int i = 0; i < siblings.size(); i++) {
+        if (siblings.get(i) == ruleset) {
+          parent.replaceChildAt(i, ImmutableList.<CssNode>of(ruleset, entry.getValue()));
+          break;
+        }
+      }
+    }
   }
 
   private CssDeclarationNode buildBackgroundDeclaration(String imageResource, String repeatText,
-      SourceCodeLocation location) {
+      SpriteGeometry geometry, SourceCodeLocation location) {
     // build the url function
     CssFunctionNode urlFunction = new CssFunctionNode(Function.byName("url"), location);
     CssDotPathNode imageUrl = new CssDotPathNode(resourceThisPrefix, imageResource + ".getSafeUri" +
@@ -96,13 +178,20 @@ public class ImageSpriteCreator extends DefaultTreeVisitor implements CssCompile
     urlFunctionArguments.addChildToBack(imageUrl);
     urlFunction.setArguments(urlFunctionArguments);
 
-    // build left offset
-    CssDotPathNode left = new CssDotPathNode(resourceThisPrefix, imageResource + ".getLeft", "-",
-        "px", location);
-
-    // build top offset
-    CssDotPathNode top = new CssDotPathNode(resourceThisPrefix, imageResource + ".getTop",
-        "-", "px", location);
+    CssValueNode left;
+    CssValueNode top;
+    if (geometry != null && geometry.standalone) {
+      left = new CssNumericNode("0", CssNumericNode.NO_UNITS, location);
+      top = new CssNumericNode("0", CssNumericNode.NO_UNITS, location);
+    } else {
+      // build left offset
+      left = new CssDotPathNode(resourceThisPrefix, imageResource + ".getLeft", "-", "px",
+          location);
+
+      // build top offset
+      top = new CssDotPathNode(resourceThisPrefix, imageResource + ".getTop", "-", "px",
+          location);
+    }
 
     // build repeat
     CssLiteralNode repeat = new CssLiteralNode(repeatText, location);
@@ -116,10 +205,11 @@ public class ImageSpriteCreator extends DefaultTreeVisitor implements CssCompile
   }
 
   private CssDeclarationNode buildHeightDeclaration(String imageResource,
-      SourceCodeLocation location) {
+      SpriteGeometry geometry, SourceCodeLocation location) {
     CssPropertyNode propertyNode = new CssPropertyNode("height", location);
-    CssValueNode valueNode = new CssDotPathNode(resourceThisPrefix, imageResource + ".getHeight",
-        null, "px", location);
+    CssValueNode valueNode = geometry != null ?
+        new CssNumericNode(String.valueOf(geometry.height), "px", location) :
+        new CssDotPathNode(resourceThisPrefix, imageResource + ".getHeight", null, "px", location);
 
     CssPropertyValueNode propertyValueNode = new CssPropertyValueNode(ImmutableList.of(valueNode));
 
@@ -136,10 +226,11 @@ public class ImageSpriteCreator extends DefaultTreeVisitor implements CssCompile
   }
 
   private CssDeclarationNode buildWidthDeclaration(String imageResource,
-      SourceCodeLocation location) {
+      SpriteGeometry geometry, SourceCodeLocation location) {
     CssPropertyNode propertyNode = new CssPropertyNode("width", location);
-    CssValueNode valueNode = new CssDotPathNode(resourceThisPrefix, imageResource + ".getWidth",
-        null, "px", location);
+    CssValueNode valueNode = geometry != null ?
+        new CssNumericNode(String.valueOf(geometry.width), "px", location) :
+        new CssDotPathNode(resourceThisPrefix, imageResource + ".getWidth", null, "px", location);
     CssPropertyValueNode propertyValueNode = new CssPropertyValueNode(ImmutableList.of(valueNode));
 
     return createDeclarationNode(propertyNode, propertyValueNode, location, true);
@@ -148,26 +239,21 @@ public class ImageSpriteCreator extends DefaultTreeVisitor implements CssCompile
   private void createSprite(CssDeclarationNode declaration) {
     List<CssValueNode> valuesNodes = declaration.getPropertyValue().getChildren();
 
-    if (valuesNodes.size() != 1) {
-      errorManager.report(new GssError(SPRITE_PROPERTY_NAME + " must have exactly one value",
-          declaration.getSourceCodeLocation()));
+    if (valuesNodes.size() != 1 && valuesNodes.size() != 2) {
+      errorManager.report(new GssError(SPRITE_PROPERTY_NAME + " must have one value or two " +
+          "values: the image and its high density version", declaration.getSourceCodeLocation()));
+      return;
     }
 
     String imageResource = valuesNodes.get(0).getValue();
-
-    JMethod imageMethod;
-    try {
-      imageMethod = ResourceGeneratorUtil.getMethodByPath(context.getClientBundleType(),
-          getPathElement(imageResource), imageResourceType);
-    } catch (NotFoundException e) {
-      errorManager.report(new GssError("Unable to find ImageResource method "
-          + imageResource + " in " + context.getClientBundleType().getQualifiedSourceName() + " : "
-          + e.getMessage(), declaration.getSourceCodeLocation()));
+    JMethod imageMethod = getImageMethod(imageResource, declaration.getSourceCodeLocation());
+    if (imageMethod == null) {
       return;
     }
 
     ImageOptions options = imageMethod.getAnnotation(ImageOptions.class);
     RepeatStyle repeatStyle = options != null ? options.repeatStyle() : RepeatStyle.None;
+    SpriteGeometry geometry = resolveGeometry ? getGeometry(imageMethod) : null;
 
     Builder<CssDeclarationNode> listBuilder = ImmutableList.builder();
     SourceCodeLocation sourceCodeLocation = declaration.getSourceCodeLocation();
@@ -176,16 +262,16 @@ public class ImageSpriteCreator extends DefaultTreeVisitor implements CssCompile
     switch (repeatStyle) {
       case None:
         repeatText = " no-repeat";
-        listBuilder.add(buildHeightDeclaration(imageResource, sourceCodeLocation));
-        listBuilder.add(buildWidthDeclaration(imageResource, sourceCodeLocation));
+        listBuilder.add(buildHeightDeclaration(imageResource, geometry, sourceCodeLocation));
+        listBuilder.add(buildWidthDeclaration(imageResource, geometry, sourceCodeLocation));
         break;
       case Horizontal:
         repeatText = " repeat-x";
-        listBuilder.add(buildHeightDeclaration(imageResource, sourceCodeLocation));
+        listBuilder.add(buildHeightDeclaration(imageResource, geometry, sourceCodeLocation));
         break;
       case Vertical:
         repeatText = " repeat-y";
-        listBuilder.add(buildWidthDeclaration(imageResource, sourceCodeLocation));
+        listBuilder.add(buildWidthDeclaration(imageResource, geometry, sourceCodeLocation));
         break;
       case Both:
         repeatText = " repeat";
@@ -196,14 +282,198 @@ public class ImageSpriteCreator extends DefaultTreeVisitor implements CssCompile
         return;
     }
 
+    if (valuesNodes.size() == 2) {
+      String highDensityImageResource = valuesNodes.get(1).getValue();
+      SourceCodeLocation highDensityLocation = valuesNodes.get(1).getSourceCodeLocation();
+      JMethod highDensityImageMethod = getImageMethod(highDensityImageResource,
+          highDensityLocation);
+      if (highDensityImageMethod == null) {
+        return;
+      }
+
+      CssNode ruleset = declaration.getParent().getParent();
+      // the high density image is only downloaded by high density screens when it is a separate
+      // file. A composite image cannot be scaled down because its size is unknown, and an image
+      // inlined as a data url is downloaded by every screen.
+      if (!isExternal(highDensityImageMethod.getAnnotation(ImageOptions.class))) {
+        errorManager.reportWarning(new GssError("The high density image " +
+            highDensityImageResource + " is ignored because it is not served as a separate " +
+            "file. Use @ImageOptions(preventInlining = true) on it.", highDensityLocation));
+      } else if (!(ruleset instanceof CssRulesetNode) ||
+          !(ruleset.getParent().getParent() instanceof CssRootNode)) {
+        // the media rule would be nested in the @media or the block containing the ruleset
+        errorManager.reportWarning(new GssError("The high density image " +
+            highDensityImageResource + " is ignored: " + SPRITE_PROPERTY_NAME + " only accepts " +
+            "a high density image in top level rulesets.", highDensityLocation));
+      } else {
+        highDensityRules.put((CssRulesetNode) ruleset, buildHighDensityRule(
+            (CssRulesetNode) ruleset, imageResource, highDensityImageResource,
+            !isStandalone(options), geometry, sourceCodeLocation));
+      }
+    }
+
     listBuilder.add(buildOverflowDeclaration(sourceCodeLocation));
-    listBuilder.add(buildBackgroundDeclaration(imageResource, repeatText, sourceCodeLocation));
+    listBuilder.add(buildBackgroundDeclaration(imageResource, repeatText, geometry,
+        sourceCodeLocation));
 
     visitController.replaceCurrentBlockChildWith(listBuilder.build(), false);
   }
 
-  private List<String> getPathElement(String imageResourcePath) {
-    return Lists.newArrayList(imageResourcePath.split("\\."));
+  /**
+   * Builds a media rule displaying the high density image, scaled down to the size of the image,
+   * on high density screens.
+   */
+  private CssMediaRuleNode buildHighDensityRule(CssRulesetNode ruleset, String imageResource,
+      String highDensityImageResource, boolean resetPosition, SpriteGeometry geometry,
+      SourceCodeLocation location) {
+    CssRulesetNode highDensityRuleset = new CssRulesetNode();
+    for (CssSelectorNode selector : ruleset.getSelectors().childIterable()) {
+      highDensityRuleset.addSelector(selector.deepCopy());
+    }
+    highDensityRuleset.setSourceCodeLocation(location);
+
+    CssFunctionNode urlFunction = new CssFunctionNode(Function.byName("url"), location);
+    CssFunctionArgumentsNode urlFunctionArguments = new CssFunctionArgumentsNode();
+    urlFunctionArguments.addChildToBack(new CssDotPathNode(resourceThisPrefix,
+        highDensityImageResource + ".getSafeUri.asString", null, null, location));
+    urlFunction.setArguments(urlFunctionArguments);
+    highDensityRuleset.addDeclaration(createDeclarationNode(
+        new CssPropertyNode("background-image", location),
+        new CssPropertyValueNode(ImmutableList.<CssValueNode>of(urlFunction)), location, false));
+
+    CssValueNode width = geometry != null ?
+        new CssNumericNode(String.valueOf(geometry.width), "px", location) :
+        new CssDotPathNode(resourceThisPrefix, imageResource + ".getWidth", null, "px", location);
+    CssValueNode height = geometry != null ?
+        new CssNumericNode(String.valueOf(geometry.height), "px", location) :
+        new CssDotPathNode(resourceThisPrefix, imageResource + ".getHeight", null, "px", location);
+    highDensityRuleset.addDeclaration(createDeclarationNode(
+        new CssPropertyNode("background-size", location),
+        new CssPropertyValueNode(ImmutableList.of(width, height)), location, false));
+
+    if (resetPosition) {
+      // the image is part of a composite image on normal screens
+      highDensityRuleset.addDeclaration(createDeclarationNode(
+          new CssPropertyNode("background-position", location),
+          new CssPropertyValueNode(ImmutableList.<CssValueNode>of(
+              new CssNumericNode("0", CssNumericNode.NO_UNITS, location),
+              new CssNumericNode("0", CssNumericNode.NO_UNITS, location))), location, false));
+    }
+
+    CssBlockNode block = new CssBlockNode(true);
+    block.addChildToBack(highDensityRuleset);
+
+    CssMediaRuleNode mediaRule = new CssMediaRuleNode(ImmutableList.<CssCommentNode>of(), block);
+    mediaRule.setParameters(ImmutableList.<CssValueNode>of(
+        new CssLiteralNode(HIGH_DENSITY_MEDIA_QUERY, location)));
+    mediaRule.setSourceCodeLocation(location);
+    return mediaRule;
+  }
+
+  private JMethod getImageMethod(String imageResource, SourceCodeLocation location) {
+    try {
+      return methodIndex.getMethod(imageResource, imageResourceType);
+    } catch (NotFoundException e) {
+      errorManager.report(new GssError("Unable to find ImageResource method "
+          + imageResource + " in " + context.getClientBundleType().getQualifiedSourceName() + " : "
+          + e.getMessage(), location));
+      return null;
+    }
+  }
+
+  /**
+   * Returns true if the ImageResourceGenerator displays the image on its own instead of adding it
+   * to a composite image. The ImageResourceGenerator only builds composite images when data urls
+   * are not supported.
+   */
+  private boolean isStandalone(ImageOptions options) {
+    return context.supportsDataUrls() || (options != null && (options.preventInlining() ||
+        options.repeatStyle() == RepeatStyle.Both));
+  }
+
+  /**
+   * Returns true if the ImageResourceGenerator serves the image as a file of its own, neither
+   * inlined as a data url nor added to a composite image.
+   */
+  private boolean isExternal(ImageOptions options) {
+    return options != null && (options.preventInlining() ||
+        (!context.supportsDataUrls() && options.repeatStyle() == RepeatStyle.Both));
+  }
+
+  /**
+   * Computes the geometry of the image the same way the ImageResourceGenerator does. Returns null
+   * if the image cannot be read, in which case the geometry is read at runtime and the
+   * ImageResourceGenerator reports the error.
+   */
+  private SpriteGeometry getGeometry(JMethod imageMethod) {
+    if (geometries.containsKey(imageMethod)) {
+      return geometries.get(imageMethod);
+    }
+
+    SpriteGeometry geometry = null;
+    try {
+      try {
+        // findResources picks the image of the current locale
+        context.getRequirements().addPermutationAxis("locale");
+      } catch (BadPropertyValueException e) {
+        // OK, locale isn't defined
+      }
+
+      URL[] resources = ResourceGeneratorUtil.findResources(TreeLogger.NULL, context,
+          imageMethod);
+      if (resources.length == 1) {
+        geometry = readGeometry(resources[0], imageMethod.getAnnotation(ImageOptions.class));
+      }
+    } catch (UnableToCompleteException e) {
+      // fall back to the runtime values
+    } catch (IOException e) {
+      // fall back to the runtime values
+    }
+
+    geometries.put(imageMethod, geometry);
+    return geometry;
+  }
+
+  private SpriteGeometry readGeometry(URL image, ImageOptions options) throws IOException {
+    InputStream stream = image.openStream();
+    try {
+      ImageInputStream input = ImageIO.createImageInputStream(stream);
+      if (input == null) {
+        return null;
+      }
+
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        return null;
+      }
+
+      ImageReader reader = readers.next();
+      int intrinsicWidth;
+      int intrinsicHeight;
+      try {
+        reader.setInput(input, true, true);
+        intrinsicWidth = reader.getWidth(0);
+        intrinsicHeight = reader.getHeight(0);
+      } finally {
+        reader.dispose();
+      }
+
+      // same scaling as ImageBundleBuilder.ImageRect
+      int width = options != null ? options.width() : -1;
+      int height = options != null ? options.height() : -1;
+      if (height > 0 && width <= 0) {
+        width = (int) Math.round((double) height / intrinsicHeight * intrinsicWidth);
+      } else if (width > 0 && height <= 0) {
+        height = (int) Math.round((double) width / intrinsicWidth * intrinsicHeight);
+      } else if (width <= 0) {
+        width = intrinsicWidth;
+        height = intrinsicHeight;
+      }
+
+      return new SpriteGeometry(width, height, isStandalone(options));
+    } finally {
+      stream.close();
+    }
   }
 
   private CssDeclarationNode createDeclarationNode(CssPropertyNode propertyNode,
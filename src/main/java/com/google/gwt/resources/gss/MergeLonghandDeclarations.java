@@ -0,0 +1,238 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.css.compiler.ast.CssCommentNode;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssCompositeValueNode;
+import com.google.common.css.compiler.ast.CssDeclarationBlockNode;
+import com.google.common.css.compiler.ast.CssDeclarationNode;
+import com.google.common.css.compiler.ast.CssNode;
+import com.google.common.css.compiler.ast.CssPriorityNode;
+import com.google.common.css.compiler.ast.CssPropertyNode;
+import com.google.common.css.compiler.ast.CssPropertyValueNode;
+import com.google.common.css.compiler.ast.CssRulesetNode;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.MutatingVisitController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges complete groups of longhand declarations of a ruleset into their shorthand, e.g.
+ * {@code margin-top}, {@code margin-right}, {@code margin-bottom} and {@code margin-left} into one
+ * {@code margin} declaration.
+ * <p>
+ * A group is merged only if each longhand is declared exactly once with a single value, all of
+ * them have the same importance, none of them is annotated with {@code @alternate} and no other
+ * declaration of the ruleset sets one of the properties covered by the shorthand. Longhands all
+ * annotated with {@code @noflip} produce a shorthand annotated with {@code @noflip}.
+ */
+public class MergeLonghandDeclarations extends DefaultTreeVisitor implements CssCompilerPass {
+  private static final String ALTERNATE = "/* @alternate */";
+  private static final String NO_FLIP = "/* @noflip */";
+
+  private static final Set<String> GLOBAL_KEYWORDS =
+      ImmutableSet.of("inherit", "initial", "unset", "revert");
+
+  private static class LonghandGroup {
+    private final String shorthand;
+    private final List<String> longhands;
+    private final Set<String> conflictingProperties;
+    private final List<String> conflictingPrefixes;
+    private final String conflictingSuffix;
+
+    private LonghandGroup(String shorthand, List<String> longhands,
+        Set<String> conflictingProperties, List<String> conflictingPrefixes,
+        String conflictingSuffix) {
+      this.shorthand = shorthand;
+      this.longhands = longhands;
+      this.conflictingProperties = conflictingProperties;
+      this.conflictingPrefixes = conflictingPrefixes;
+      this.conflictingSuffix = conflictingSuffix;
+    }
+
+    /**
+     * Returns true if the property is not part of the group but sets, or may set, one of the
+     * properties covered by the shorthand.
+     */
+    private boolean conflictsWith(String propertyName) {
+      if (longhands.contains(propertyName)) {
+        return false;
+      }
+
+      String name = CascadeConflictIndex.stripVendorPrefix(propertyName);
+      if (name.equals(shorthand) || conflictingProperties.contains(name)) {
+        return true;
+      }
+
+      for (String prefix : conflictingPrefixes) {
+        if (name.startsWith(prefix) && name.endsWith(conflictingSuffix)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final Set<String> BORDER_SHORTHANDS = ImmutableSet.of("border", "border-top",
+      "border-right", "border-bottom", "border-left", "border-inline", "border-inline-start",
+      "border-inline-end", "border-block", "border-block-start", "border-block-end");
+
+  // background is not merged: the shorthand resets background-size, background-origin and
+  // background-clip, which could have been set by another ruleset.
+  private static final List<LonghandGroup> GROUPS = ImmutableList.of(
+      positionalGroup("margin", "margin-%s", ImmutableSet.<String>of(),
+          ImmutableList.of("margin"), ""),
+      positionalGroup("padding", "padding-%s", ImmutableSet.<String>of(),
+          ImmutableList.of("padding"), ""),
+      positionalGroup("border-width", "border-%s-width", BORDER_SHORTHANDS,
+          ImmutableList.of("border-"), "-width"),
+      positionalGroup("border-style", "border-%s-style", BORDER_SHORTHANDS,
+          ImmutableList.of("border-"), "-style"),
+      positionalGroup("border-color", "border-%s-color", BORDER_SHORTHANDS,
+          ImmutableList.of("border-"), "-color"));
+
+  private static LonghandGroup positionalGroup(String shorthand, String pattern,
+      Set<String> conflictingProperties, List<String> conflictingPrefixes,
+      String conflictingSuffix) {
+    List<String> longhands = new ArrayList<String>();
+    for (String side : new String[]{"top", "right", "bottom", "left"}) {
+      longhands.add(String.format(pattern, side));
+    }
+    return new LonghandGroup(shorthand, longhands, conflictingProperties, conflictingPrefixes,
+        conflictingSuffix);
+  }
+
+  private final MutatingVisitController visitController;
+
+  public MergeLonghandDeclarations(MutatingVisitController visitController) {
+    this.visitController = visitController;
+  }
+
+  @Override
+  public boolean enterRuleset(CssRulesetNode ruleset) {
+    CssDeclarationBlockNode block = ruleset.getDeclarations();
+
+    for (CssNode child : block.childIterable()) {
+      if (!(child instanceof CssDeclarationNode) || ((CssDeclarationNode) child).hasStarHack()) {
+        return true;
+      }
+    }
+
+    for (LonghandGroup group : GROUPS) {
+      mergeGroup(block, group);
+    }
+
+    return true;
+  }
+
+  private void mergeGroup(CssDeclarationBlockNode block, LonghandGroup group) {
+    Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    List<CssNode> children = block.getChildren();
+    for (int i = 0; i < children.size(); i++) {
+      String propertyName = ((CssDeclarationNode) children.get(i)).getPropertyName()
+          .getPropertyName();
+
+      if (group.conflictsWith(propertyName) ||
+          (group.longhands.contains(propertyName) && indexes.put(propertyName, i) != null)) {
+        return;
+      }
+    }
+
+    if (indexes.size() != group.longhands.size()) {
+      return;
+    }
+
+    List<CssValueNode> shorthandValues = new ArrayList<CssValueNode>();
+    CssPriorityNode priority = null;
+    int noFlipCount = 0;
+
+    for (int j = 0; j < group.longhands.size(); j++) {
+      CssDeclarationNode declaration = (CssDeclarationNode) children.get(
+          indexes.get(group.longhands.get(j)));
+
+      if (declaration.hasComment(ALTERNATE)) {
+        return;
+      }
+      if (declaration.hasComment(NO_FLIP)) {
+        noFlipCount++;
+      }
+
+      List<CssValueNode> values = new ArrayList<CssValueNode>();
+      CssPriorityNode currentPriority = null;
+      for (CssValueNode value : declaration.getPropertyValue().childIterable()) {
+        if (value instanceof CssPriorityNode) {
+          currentPriority = (CssPriorityNode) value;
+        } else if (value instanceof CssCompositeValueNode ||
+            GLOBAL_KEYWORDS.contains(value.getValue())) {
+          return;
+        } else {
+          values.add(value.deepCopy());
+        }
+      }
+
+      if (values.size() != 1 ||
+          (j > 0 && (priority == null) != (currentPriority == null))) {
+        return;
+      }
+
+      priority = currentPriority;
+      shorthandValues.addAll(values);
+    }
+
+    if (noFlipCount != 0 && noFlipCount != group.longhands.size()) {
+      return;
+    }
+
+    if (priority != null) {
+      shorthandValues.add(priority.deepCopy());
+    }
+
+    List<CssCommentNode> comments = new ArrayList<CssCommentNode>();
+    if (noFlipCount != 0) {
+      comments.add(new CssCommentNode(NO_FLIP, null));
+    }
+
+    CssDeclarationNode shorthand = new CssDeclarationNode(new CssPropertyNode(group.shorthand),
+        new CssPropertyValueNode(shorthandValues), comments);
+
+    // replace the first longhand by the shorthand and remove the others, starting by the end in
+    // order to keep the indexes valid.
+    List<Integer> sortedIndexes = Lists.newArrayList(indexes.values());
+    Collections.sort(sortedIndexes, Collections.reverseOrder());
+    for (int k = 0; k < sortedIndexes.size(); k++) {
+      boolean first = k == sortedIndexes.size() - 1;
+      block.replaceChildAt(sortedIndexes.get(k), first ? ImmutableList.of(shorthand) :
+          Collections.<CssNode>emptyList());
+    }
+  }
+
+  @Override
+  public void runPass() {
+    visitController.startVisit(this);
+  }
+}
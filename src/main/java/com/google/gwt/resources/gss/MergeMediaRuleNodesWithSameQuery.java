@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.css.compiler.ast.CssBlockNode;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssMediaRuleNode;
+import com.google.common.css.compiler.ast.CssNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.VisitController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges {@code @media} rules having the same query, as long as moving the rules cannot change the
+ * cascade. The rules of a {@code @media} rule are moved up to the previous {@code @media} rule
+ * with the same query or, if that is not possible, the rules of the previous one are moved down.
+ * Rulesets located between the two {@code @media} rules are checked with a
+ * {@link CascadeConflictIndex}.
+ */
+public class MergeMediaRuleNodesWithSameQuery extends DefaultTreeVisitor
+    implements CssCompilerPass {
+
+  private static class Anchor {
+    private final CssMediaRuleNode mediaRule;
+    private final int index;
+    private final int position;
+
+    private Anchor(CssMediaRuleNode mediaRule, int index, int position) {
+      this.mediaRule = mediaRule;
+      this.index = index;
+      this.position = position;
+    }
+  }
+
+  private final VisitController visitController;
+
+  public MergeMediaRuleNodesWithSameQuery(VisitController visitController) {
+    this.visitController = visitController;
+  }
+
+  @Override
+  public boolean enterBlock(CssBlockNode block) {
+    CascadeConflictIndex conflictIndex = new CascadeConflictIndex();
+    Map<String, Anchor> anchorsByQuery = new HashMap<String, Anchor>();
+    List<Integer> mergedIndexes = new ArrayList<Integer>();
+
+    List<CssNode> children = block.getChildren();
+    for (int i = 0; i < children.size(); i++) {
+      CssNode child = children.get(i);
+      int position = i + 1;
+
+      if (child instanceof CssMediaRuleNode) {
+        CssMediaRuleNode mediaRule = (CssMediaRuleNode) child;
+        String query = Joiner.on(' ').join(mediaRule.getParameters());
+        Anchor anchor = anchorsByQuery.get(query);
+
+        if (anchor != null && conflictIndex.canMoveAfter(mediaRule, anchor.position)) {
+          // move the rules up to the end of the previous @media rule
+          conflictIndex.record(mediaRule, anchor.position);
+          moveRules(mediaRule, anchor.mediaRule, false);
+          mergedIndexes.add(i);
+          continue;
+        }
+
+        if (anchor != null && conflictIndex.canMoveAfter(anchor.mediaRule, anchor.position)) {
+          // move the rules of the previous @media rule down to the beginning of this one
+          moveRules(anchor.mediaRule, mediaRule, true);
+          mergedIndexes.add(anchor.index);
+        }
+
+        anchorsByQuery.put(query, new Anchor(mediaRule, i, position));
+      }
+
+      conflictIndex.record(child, position);
+    }
+
+    // remove the merged rules starting by the end in order to keep the indexes valid.
+    Collections.sort(mergedIndexes, Collections.reverseOrder());
+    for (int index : mergedIndexes) {
+      block.replaceChildAt(index, Collections.<CssNode>emptyList());
+    }
+
+    return true;
+  }
+
+  private void moveRules(CssMediaRuleNode from, CssMediaRuleNode to, boolean prepend) {
+    List<CssNode> rules = Lists.newArrayList(from.getBlock().childIterable());
+    CssBlockNode target = to.getBlock();
+
+    if (prepend && !target.isEmpty()) {
+      rules.add(target.getChildAt(0));
+      target.replaceChildAt(0, rules);
+    } else {
+      for (CssNode rule : rules) {
+        target.addChildToBack(rule);
+      }
+    }
+  }
+
+  @Override
+  public void runPass() {
+    visitController.startVisit(this);
+  }
+}
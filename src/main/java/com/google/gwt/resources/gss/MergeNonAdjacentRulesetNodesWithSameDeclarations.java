@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.css.compiler.ast.CssBlockNode;
+import com.google.common.css.compiler.ast.CssCombinatorNode;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssNode;
+import com.google.common.css.compiler.ast.CssPseudoClassNode;
+import com.google.common.css.compiler.ast.CssPseudoElementNode;
+import com.google.common.css.compiler.ast.CssRefinerNode;
+import com.google.common.css.compiler.ast.CssRootNode;
+import com.google.common.css.compiler.ast.CssRulesetNode;
+import com.google.common.css.compiler.ast.CssSelectorNode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges rulesets having the same declarations even if they are not adjacent, as long as moving the
+ * later ruleset up to the earlier one cannot change the cascade. The decision is taken with a
+ * {@link CascadeConflictIndex} so the pass is linear in the number of (declaration, selector)
+ * pairs of each block.
+ * <p>
+ * Merged rulesets are only marked for removal: the pass has to be followed by
+ * {@link com.google.common.css.compiler.passes.EliminateUselessRulesetNodes}.
+ */
+public class MergeNonAdjacentRulesetNodesWithSameDeclarations extends DefaultTreeVisitor
+    implements CssCompilerPass {
+
+  private static class Anchor {
+    private final CssRulesetNode ruleset;
+    private final int position;
+    private final Set<String> selectors = new HashSet<String>();
+
+    private Anchor(CssRulesetNode ruleset, int position) {
+      this.ruleset = ruleset;
+      this.position = position;
+
+      for (CssSelectorNode selector : ruleset.getSelectors().childIterable()) {
+        selectors.add(selector.toString());
+      }
+    }
+
+    private void merge(CssRulesetNode other) {
+      for (CssSelectorNode selector : other.getSelectors().childIterable()) {
+        if (selectors.add(selector.toString())) {
+          ruleset.addSelector(selector.deepCopy());
+        }
+      }
+    }
+  }
+
+  private final CssTree tree;
+
+  public MergeNonAdjacentRulesetNodesWithSameDeclarations(CssTree tree) {
+    this.tree = tree;
+  }
+
+  @Override
+  public boolean enterTree(CssRootNode root) {
+    tree.resetRulesetNodesToRemove();
+    return true;
+  }
+
+  @Override
+  public boolean enterBlock(CssBlockNode block) {
+    CascadeConflictIndex conflictIndex = new CascadeConflictIndex();
+    Map<String, Anchor> anchorsByDeclarations = new HashMap<String, Anchor>();
+
+    int position = 0;
+    for (CssNode child : block.childIterable()) {
+      position++;
+
+      if (!(child instanceof CssRulesetNode)) {
+        conflictIndex.record(child, position);
+        continue;
+      }
+
+      CssRulesetNode ruleset = (CssRulesetNode) child;
+      if (ruleset.getDeclarations().isEmpty() || !CascadeConflictIndex.isAnalyzable(ruleset) ||
+          hasProblematicSelectors(ruleset)) {
+        conflictIndex.record(ruleset, position);
+        continue;
+      }
+
+      String declarations = ruleset.getDeclarations().toString();
+      Anchor anchor = anchorsByDeclarations.get(declarations);
+
+      if (anchor != null && conflictIndex.canMoveAfter(ruleset, anchor.position)) {
+        anchor.merge(ruleset);
+        tree.getRulesetNodesToRemove().addRulesetNode(ruleset);
+        conflictIndex.record(ruleset, anchor.position);
+      } else {
+        anchorsByDeclarations.put(declarations, new Anchor(ruleset, position));
+        conflictIndex.record(ruleset, position);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Browsers drop a whole ruleset if one of its selectors is not supported. Selectors using pseudo
+   * elements or vendor specific pseudo classes are thus never merged with other selectors.
+   */
+  static boolean hasProblematicSelectors(CssRulesetNode ruleset) {
+    for (CssSelectorNode selector : ruleset.getSelectors().childIterable()) {
+      CssSelectorNode current = selector;
+      while (current != null) {
+        for (CssRefinerNode refiner : current.getRefiners().childIterable()) {
+          if (refiner instanceof CssPseudoElementNode || (refiner instanceof CssPseudoClassNode &&
+              refiner.getRefinerName().startsWith("-"))) {
+            return true;
+          }
+        }
+        CssCombinatorNode combinator = current.getCombinator();
+        current = combinator == null ? null : combinator.getSelector();
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void runPass() {
+    tree.getMutatingVisitController().startVisit(this);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Immutable replacement map of all the style classes a stylesheet can reference: the classes of
+ * its own type, the classes of the imported types prefixed by their import prefix and the external
+ * classes that are not renamed.
+ * <p>
+ * Each class has an index so that the classes used by a stylesheet can be tracked in a
+ * {@link java.util.BitSet}. An instance doesn't depend on the stylesheet and can be shared by all
+ * the stylesheets having the same type, imports and external classes.
+ */
+public class PrefixedReplacementMap {
+  private final Map<String, Integer> indexes;
+  private final String[] classNames;
+  private final String[] replacements;
+
+  public PrefixedReplacementMap(Map<String, Map<String, String>> replacementsWithPrefix,
+      Collection<String> externalClasses) {
+    Map<String, String> merged = new HashMap<String, String>();
+
+    for (Entry<String, Map<String, String>> entry : replacementsWithPrefix.entrySet()) {
+      String prefix = entry.getKey();
+
+      for (Entry<String, String> replacementEntry : entry.getValue().entrySet()) {
+        merged.put(prefix + replacementEntry.getKey(), replacementEntry.getValue());
+      }
+    }
+
+    // override mapping for external classes
+    for (String external : externalClasses) {
+      merged.put(external, external);
+    }
+
+    indexes = new HashMap<String, Integer>(merged.size() * 4 / 3 + 1);
+    List<String> names = new ArrayList<String>(merged.keySet());
+    classNames = names.toArray(new String[names.size()]);
+    replacements = new String[classNames.length];
+
+    for (int i = 0; i < classNames.length; i++) {
+      indexes.put(classNames[i], i);
+      replacements[i] = merged.get(classNames[i]);
+    }
+  }
+
+  /**
+   * Returns the index of the class or -1 if the class has no replacement.
+   */
+  public int indexOf(String className) {
+    Integer index = indexes.get(className);
+    return index == null ? -1 : index;
+  }
+
+  public String getClassName(int index) {
+    return classNames[index];
+  }
+
+  public String getReplacement(int index) {
+    return replacements[index];
+  }
+
+  public int size() {
+    return classNames.length;
+  }
+}
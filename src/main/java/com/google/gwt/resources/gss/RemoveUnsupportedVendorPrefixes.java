@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.css.compiler.ast.CssCombinatorNode;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssCompositeValueNode;
+import com.google.common.css.compiler.ast.CssDeclarationNode;
+import com.google.common.css.compiler.ast.CssFunctionNode;
+import com.google.common.css.compiler.ast.CssKeyframesNode;
+import com.google.common.css.compiler.ast.CssLiteralNode;
+import com.google.common.css.compiler.ast.CssPriorityNode;
+import com.google.common.css.compiler.ast.CssPseudoClassNode;
+import com.google.common.css.compiler.ast.CssPseudoElementNode;
+import com.google.common.css.compiler.ast.CssRefinerNode;
+import com.google.common.css.compiler.ast.CssRulesetNode;
+import com.google.common.css.compiler.ast.CssSelectorNode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.CssUnknownAtRuleNode;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.MutatingVisitController;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes the nodes using a vendor prefix that the targeted browser doesn't support. A browser
+ * ignores these nodes anyway, so removing them doesn't change the rendering:
+ * <ul>
+ * <li>declarations of a prefixed property, e.g. {@code -moz-transition},</li>
+ * <li>declarations using a prefixed function, e.g. {@code -webkit-linear-gradient()}, or whose
+ * whole value is a prefixed keyword, e.g. {@code display: -ms-flexbox},</li>
+ * <li>prefixed at-rules, e.g. {@code @-webkit-keyframes} or {@code @-moz-document},</li>
+ * <li>rulesets using a prefixed pseudo-class or pseudo-element, e.g. {@code ::-moz-selection}.</li>
+ * </ul>
+ * Only the prefixes listed in the known prefixes are considered, the other ones are kept.
+ */
+public class RemoveUnsupportedVendorPrefixes extends DefaultTreeVisitor
+    implements CssCompilerPass {
+
+  /**
+   * Properties accepting any identifier as value: a prefixed keyword doesn't invalidate them.
+   */
+  private static final Set<String> IDENTIFIER_PROPERTIES = ImmutableSet.of("transition",
+      "transition-property", "will-change", "animation", "animation-name", "font", "font-family",
+      "counter-reset", "counter-increment");
+
+  /**
+   * Returns true if the tree contains at least one node using one of the known prefixes.
+   */
+  public static boolean containsVendorPrefixes(CssTree cssTree, Set<String> knownPrefixes) {
+    RemoveUnsupportedVendorPrefixes detector = new RemoveUnsupportedVendorPrefixes(
+        cssTree.getMutatingVisitController(), knownPrefixes, Collections.<String>emptySet(),
+        true);
+    detector.runPass();
+    return detector.prefixFound;
+  }
+
+  private final MutatingVisitController visitController;
+  private final Set<String> knownPrefixes;
+  private final Set<String> supportedPrefixes;
+  private final boolean detectOnly;
+  private boolean prefixFound;
+
+  /**
+   * @param knownPrefixes the vendor prefixes handled by this pass, e.g. {@code -webkit-}
+   * @param supportedPrefixes the vendor prefixes supported by the targeted browser
+   */
+  public RemoveUnsupportedVendorPrefixes(MutatingVisitController visitController,
+      Set<String> knownPrefixes, Set<String> supportedPrefixes) {
+    this(visitController, knownPrefixes, supportedPrefixes, false);
+  }
+
+  private RemoveUnsupportedVendorPrefixes(MutatingVisitController visitController,
+      Set<String> knownPrefixes, Set<String> supportedPrefixes, boolean detectOnly) {
+    this.visitController = visitController;
+    this.knownPrefixes = knownPrefixes;
+    this.supportedPrefixes = supportedPrefixes;
+    this.detectOnly = detectOnly;
+  }
+
+  @Override
+  public boolean enterRuleset(CssRulesetNode ruleset) {
+    for (CssSelectorNode selector : ruleset.getSelectors().childIterable()) {
+      if (hasUnsupportedRefiner(selector)) {
+        return remove();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean enterDeclaration(CssDeclarationNode declaration) {
+    String propertyName = declaration.getPropertyName().getPropertyName();
+    if (isUnsupported(propertyName)) {
+      return remove();
+    }
+
+    List<CssValueNode> values = declaration.getPropertyValue().getChildren();
+    if (hasUnsupportedFunction(values)) {
+      return remove();
+    }
+
+    if (!IDENTIFIER_PROPERTIES.contains(CascadeConflictIndex.stripVendorPrefix(propertyName)) &&
+        hasUnsupportedKeyword(values)) {
+      return remove();
+    }
+    return true;
+  }
+
+  @Override
+  public boolean enterKeyframesRule(CssKeyframesNode node) {
+    return isUnsupported(node.getName().getValue()) ? remove() : true;
+  }
+
+  @Override
+  public boolean enterUnknownAtRule(CssUnknownAtRuleNode node) {
+    return isUnsupported(node.getName().getValue()) ? remove() : true;
+  }
+
+  private boolean remove() {
+    prefixFound = true;
+    if (!detectOnly) {
+      visitController.removeCurrentNode();
+    }
+    return false;
+  }
+
+  private boolean isUnsupported(String name) {
+    if (!name.startsWith("-")) {
+      return false;
+    }
+
+    int secondDash = name.indexOf('-', 1);
+    if (secondDash < 0) {
+      return false;
+    }
+
+    String prefix = name.substring(0, secondDash + 1);
+    return knownPrefixes.contains(prefix) && !supportedPrefixes.contains(prefix);
+  }
+
+  private boolean hasUnsupportedRefiner(CssSelectorNode selector) {
+    CssSelectorNode current = selector;
+    while (current != null) {
+      for (CssRefinerNode refiner : current.getRefiners().childIterable()) {
+        if ((refiner instanceof CssPseudoClassNode || refiner instanceof CssPseudoElementNode) &&
+            isUnsupported(refiner.getRefinerName())) {
+          return true;
+        }
+      }
+      CssCombinatorNode combinator = current.getCombinator();
+      current = combinator == null ? null : combinator.getSelector();
+    }
+    return false;
+  }
+
+  private boolean hasUnsupportedFunction(List<? extends CssValueNode> values) {
+    for (CssValueNode value : values) {
+      if (value instanceof CssFunctionNode) {
+        CssFunctionNode function = (CssFunctionNode) value;
+        if (isUnsupported(function.getFunctionName()) ||
+            hasUnsupportedFunction(function.getArguments().getChildren())) {
+          return true;
+        }
+      } else if (value instanceof CssCompositeValueNode &&
+          hasUnsupportedFunction(((CssCompositeValueNode) value).getValues())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the value is made of one prefixed keyword, the priority aside.
+   */
+  private boolean hasUnsupportedKeyword(List<CssValueNode> values) {
+    CssValueNode keyword = null;
+    for (CssValueNode value : values) {
+      if (!(value instanceof CssPriorityNode)) {
+        if (keyword != null) {
+          return false;
+        }
+        keyword = value;
+      }
+    }
+    return keyword instanceof CssLiteralNode && isUnsupported(keyword.getValue());
+  }
+
+  @Override
+  public void runPass() {
+    visitController.startVisit(this);
+  }
+}
@@ -20,11 +20,10 @@ import com.google.common.css.SubstitutionMap;
 import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.core.ext.TreeLogger.Type;
 
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 /**
@@ -38,53 +37,36 @@ import java.util.Set;
  *
  */
 public class RenamingSubstitutionMap implements SubstitutionMap {
-  private final Map<String, String> replacementMap;
+  private final PrefixedReplacementMap replacementMap;
   private final boolean isStrict;
   private final TreeLogger logger;
+  private final BitSet usedClasses;
 
   private boolean hasError;
-  private Set<String> classes;
 
   public RenamingSubstitutionMap(Map<String, Map<String, String>> replacementsWithPrefix,
       Collection<String> externalClasses, boolean isStrict, TreeLogger logger) {
-    this.isStrict = isStrict;
-    this.logger = logger;
-    this.replacementMap = computeReplacementMap(replacementsWithPrefix, externalClasses);
-
-    classes = new HashSet<String>();
+    this(new PrefixedReplacementMap(replacementsWithPrefix, externalClasses), isStrict, logger);
   }
 
-  private Map<String, String> computeReplacementMap(
-      Map<String, Map<String, String>> replacementsWithPrefix, Collection<String> externalClasses) {
-
-    Map<String, String> result = new HashMap<String, String>();
-
-    for (Entry<String, Map<String, String>> entry : replacementsWithPrefix.entrySet()) {
-      final String prefix = entry.getKey();
-      Map<String, String> replacement = new HashMap<String, String>();
-
-      for (Entry<String, String> replacementEntry : entry.getValue().entrySet()) {
-        replacement.put(prefix + replacementEntry.getKey(), replacementEntry.getValue());
-      }
-
-      result.putAll(replacement);
-    }
-
-    // override mapping for external classes
-    for (String external : externalClasses) {
-      result.put(external, external);
-    }
+  /**
+   * @param replacementMap replacement map that can be shared between the stylesheets having the
+   * same type, imports and external classes
+   */
+  public RenamingSubstitutionMap(PrefixedReplacementMap replacementMap, boolean isStrict,
+      TreeLogger logger) {
+    this.replacementMap = replacementMap;
+    this.isStrict = isStrict;
+    this.logger = logger;
 
-    return result;
+    usedClasses = new BitSet(replacementMap.size());
   }
 
   @Override
   public String get(String key) {
-    classes.add(key);
+    int index = replacementMap.indexOf(key);
 
-    String replacement = replacementMap.get(key);
-
-    if (replacement == null) {
+    if (index < 0) {
       if (isStrict) {
         logger.log(Type.ERROR, "The following non-obfuscated class is present in a strict " +
             "CssResource: " + key);
@@ -93,14 +75,24 @@ public class RenamingSubstitutionMap implements SubstitutionMap {
       return key;
     }
 
-    return replacement;
+    usedClasses.set(index);
+    return replacementMap.getReplacement(index);
   }
 
   public boolean hasError() {
     return hasError;
   }
 
+  /**
+   * Returns the style classes having a replacement that have been renamed so far.
+   */
   public Set<String> getStyleClasses() {
+    Set<String> classes = new HashSet<String>(usedClasses.cardinality() * 4 / 3 + 1);
+
+    for (int i = usedClasses.nextSetBit(0); i >= 0; i = usedClasses.nextSetBit(i + 1)) {
+      classes.add(replacementMap.getClassName(i));
+    }
+
     return classes;
   }
 }
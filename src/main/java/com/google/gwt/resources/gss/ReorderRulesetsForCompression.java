@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.css.compiler.ast.CssBlockNode;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssDeclarationNode;
+import com.google.common.css.compiler.ast.CssNode;
+import com.google.common.css.compiler.ast.CssRulesetNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.MutatingVisitController;
+import com.google.common.css.compiler.passes.CompactPrinter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves rulesets declaring the same properties next to each other so that the similar declaration
+ * blocks are close enough to be referenced by the compression algorithm (gzip can only reference
+ * the last 32KB of data).
+ * <p>
+ * A ruleset is moved up, just after the last ruleset declaring the same list of properties, only
+ * if that ruleset is located more than {@code windowSize} bytes before and if the move cannot change
+ * the cascade according to a {@link CascadeConflictIndex}. With a window size of 0, all the
+ * rulesets that can be grouped are moved.
+ */
+public class ReorderRulesetsForCompression extends DefaultTreeVisitor implements CssCompilerPass {
+
+  private static class Group {
+    private final int index;
+    private final int position;
+    private final int offset;
+
+    private Group(int index, int position, int offset) {
+      this.index = index;
+      this.position = position;
+      this.offset = offset;
+    }
+  }
+
+  private final MutatingVisitController visitController;
+  private final int windowSize;
+
+  public ReorderRulesetsForCompression(MutatingVisitController visitController, int windowSize) {
+    this.visitController = visitController;
+    this.windowSize = windowSize;
+  }
+
+  @Override
+  public boolean enterBlock(CssBlockNode block) {
+    CascadeConflictIndex conflictIndex = new CascadeConflictIndex();
+    Map<String, Group> groupsBySignature = new HashMap<String, Group>();
+
+    List<CssNode> children = block.getChildren();
+    // rulesets to insert after each child, by child index
+    List<List<CssNode>> followers = new ArrayList<List<CssNode>>(children.size());
+    boolean[] moved = new boolean[children.size()];
+    boolean reordered = false;
+    int offset = 0;
+
+    for (int i = 0; i < children.size(); i++) {
+      CssNode child = children.get(i);
+      int position = i + 1;
+      followers.add(new ArrayList<CssNode>());
+
+      if (!(child instanceof CssRulesetNode) ||
+          !CascadeConflictIndex.isAnalyzable((CssRulesetNode) child)) {
+        conflictIndex.record(child, position);
+        offset += CompactPrinter.printCompactly(child).length();
+        continue;
+      }
+
+      CssRulesetNode ruleset = (CssRulesetNode) child;
+      String signature = getSignature(ruleset);
+      Group group = groupsBySignature.get(signature);
+
+      if (group != null && offset - group.offset > windowSize &&
+          conflictIndex.canMoveAfter(ruleset, group.position)) {
+        followers.get(group.index).add(ruleset);
+        moved[i] = true;
+        reordered = true;
+        conflictIndex.record(ruleset, group.position);
+      } else {
+        groupsBySignature.put(signature, new Group(i, position, offset));
+        conflictIndex.record(ruleset, position);
+      }
+
+      offset += CompactPrinter.printCompactly(ruleset).length();
+    }
+
+    if (reordered) {
+      // rebuild the block starting by the end in order to keep the indexes valid.
+      for (int i = children.size() - 1; i >= 0; i--) {
+        if (moved[i] || !followers.get(i).isEmpty()) {
+          List<CssNode> replacement = new ArrayList<CssNode>();
+          if (!moved[i]) {
+            replacement.add(children.get(i));
+            replacement.addAll(followers.get(i));
+          }
+          block.replaceChildAt(i, replacement);
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the ordered list of the properties declared by the ruleset.
+   */
+  private String getSignature(CssRulesetNode ruleset) {
+    StringBuilder signature = new StringBuilder();
+    for (CssNode child : ruleset.getDeclarations().childIterable()) {
+      signature.append(((CssDeclarationNode) child).getPropertyName().getPropertyName())
+          .append(';');
+    }
+    return signature.toString();
+  }
+
+  @Override
+  public void runPass() {
+    visitController.startVisit(this);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.css.SubstitutionMap;
+import com.google.common.css.compiler.ast.CssCompilerPass;
+import com.google.common.css.compiler.ast.CssDeclarationNode;
+import com.google.common.css.compiler.ast.CssLiteralNode;
+import com.google.common.css.compiler.ast.CssPropertyValueNode;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.VisitController;
+import com.google.gwt.resources.gss.ast.CssDotPathNode;
+import com.google.gwt.resources.gss.ast.CssJavaExpressionNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the values computed at runtime by {@code eval()} and {@code value()} and used as
+ * property values by references to css custom properties, e.g. {@code color: eval('x')} by
+ * {@code color: var(--a)}. The stylesheet doesn't depend anymore on these values, that are set
+ * on the document by the resource and can be updated without injecting the css again.
+ * <p>
+ * The names of the custom properties are given by the {@link SubstitutionMap} from the java
+ * expressions, without the leading {@code --}. As the custom properties are set on the document,
+ * the names should not collide with the ones of the page, e.g. by starting with a fixed prefix.
+ * Values nested in functions, e.g. the urls computed by {@code resourceUrl()}, are
+ * kept untouched.
+ */
+public class ReplaceRuntimeValuesWithCustomProperties extends DefaultTreeVisitor
+    implements CssCompilerPass {
+
+  private final VisitController visitController;
+  private final SubstitutionMap names;
+  private final Map<String, String> customProperties = new LinkedHashMap<String, String>();
+  private final List<CssPropertyValueNode> runtimeValues = new ArrayList<CssPropertyValueNode>();
+
+  public ReplaceRuntimeValuesWithCustomProperties(VisitController visitController,
+      SubstitutionMap names) {
+    this.visitController = visitController;
+    this.names = names;
+  }
+
+  @Override
+  public boolean enterDeclaration(CssDeclarationNode declaration) {
+    for (CssValueNode value : declaration.getPropertyValue().childIterable()) {
+      if (isRuntimeValue(value)) {
+        runtimeValues.add(declaration.getPropertyValue());
+        break;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the java expressions of the custom properties, by name.
+   */
+  public Map<String, String> getCustomProperties() {
+    return Collections.unmodifiableMap(customProperties);
+  }
+
+  @Override
+  public void runPass() {
+    visitController.startVisit(this);
+
+    // the values are replaced once the tree is visited
+    for (CssPropertyValueNode propertyValue : runtimeValues) {
+      for (int i = 0; i < propertyValue.numChildren(); i++) {
+        CssValueNode value = propertyValue.getChildAt(i);
+
+        if (isRuntimeValue(value)) {
+          String name = "--" + names.get(value.getValue());
+          customProperties.put(name, value.getValue());
+
+          CssValueNode reference = new CssLiteralNode("var(" + name + ")",
+              value.getSourceCodeLocation());
+          propertyValue.replaceChildAt(i, ImmutableList.of(reference));
+        }
+      }
+    }
+  }
+
+  private boolean isRuntimeValue(CssValueNode value) {
+    return value instanceof CssJavaExpressionNode || value instanceof CssDotPathNode;
+  }
+}
@@ -20,31 +20,70 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.css.SourceCodeLocation;
 import com.google.common.css.compiler.ast.CssFunctionArgumentsNode;
 import com.google.common.css.compiler.ast.CssFunctionNode;
+import com.google.common.css.compiler.ast.CssLiteralNode;
 import com.google.common.css.compiler.ast.CssValueNode;
 import com.google.common.css.compiler.ast.ErrorManager;
 import com.google.common.css.compiler.ast.GssError;
 import com.google.common.css.compiler.ast.GssFunction;
 import com.google.common.css.compiler.ast.GssFunctionException;
 import com.google.common.css.compiler.gssfunctions.GssFunctions;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Resources;
+import com.google.gwt.core.ext.BadPropertyValueException;
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
 import com.google.gwt.core.ext.typeinfo.JClassType;
+import com.google.gwt.core.ext.typeinfo.JMethod;
 import com.google.gwt.core.ext.typeinfo.JType;
 import com.google.gwt.core.ext.typeinfo.NotFoundException;
 import com.google.gwt.resources.client.DataResource;
+import com.google.gwt.resources.client.DataResource.DoNotEmbed;
+import com.google.gwt.resources.client.DataResource.MimeType;
 import com.google.gwt.resources.client.ImageResource;
 import com.google.gwt.resources.ext.ResourceContext;
 import com.google.gwt.resources.ext.ResourceGeneratorUtil;
 import com.google.gwt.resources.gss.ast.CssDotPathNode;
 import com.google.gwt.resources.gss.ast.CssJavaExpressionNode;
 
+import java.io.IOException;
+import java.net.URL;
 import java.util.List;
+import java.util.regex.Pattern;
 
 public class ResourceUrlFunction implements GssFunction {
+  private static final Pattern INLINABLE_MIME_TYPE = Pattern.compile("[\\w.+-]+/[\\w.+-]+");
+
   private final ResourceContext context;
+  private final ClientBundleMethodIndex methodIndex;
   private final JClassType dataResourceType;
   private final JClassType imageResourceType;
+  private final int dataUrlInliningThreshold;
 
   public ResourceUrlFunction(ResourceContext context) {
+    this(context, 0);
+  }
+
+  /**
+   * @param dataUrlInliningThreshold maximal size in bytes of the DataResources written as data
+   *                                 urls in the css when the browser supports them. 0 disables
+   *                                 the inlining.
+   */
+  public ResourceUrlFunction(ResourceContext context, int dataUrlInliningThreshold) {
+    this(context, new ClientBundleMethodIndex(context.getClientBundleType()),
+        dataUrlInliningThreshold);
+  }
+
+  /**
+   * @param methodIndex              index used to resolve the resource methods of the bundle
+   * @param dataUrlInliningThreshold maximal size in bytes of the DataResources written as data
+   *                                 urls in the css when the browser supports them. 0 disables
+   *                                 the inlining.
+   */
+  public ResourceUrlFunction(ResourceContext context, ClientBundleMethodIndex methodIndex,
+      int dataUrlInliningThreshold) {
     this.context = context;
+    this.methodIndex = methodIndex;
+    this.dataUrlInliningThreshold = dataUrlInliningThreshold;
     this.dataResourceType = context.getGeneratorContext().getTypeOracle()
             .findType(DataResource.class.getCanonicalName());
     this.imageResourceType = context.getGeneratorContext().getTypeOracle()
@@ -67,9 +106,14 @@ public class ResourceUrlFunction implements GssFunction {
     String value = functionToEval.getValue();
     SourceCodeLocation location = functionToEval.getSourceCodeLocation();
 
-    String javaExpression = buildJavaExpression(value, location, errorManager);
+    CssDotPathNode dotPathValue = new CssDotPathNode(value, "", "", location);
+    JMethod resourceMethod = getResourceMethod(location, dotPathValue.getPath(), errorManager);
+
+    String dataUrl = getInlinedDataUrl(resourceMethod);
+    CssValueNode urlValue = dataUrl != null ? new CssLiteralNode(dataUrl, location) :
+        new CssJavaExpressionNode(buildJavaExpression(dotPathValue));
 
-    CssFunctionNode urlNode = buildUrlNode(javaExpression, location);
+    CssFunctionNode urlNode = buildUrlNode(urlValue, location);
 
     return ImmutableList.<CssValueNode>of(urlNode);
   }
@@ -79,29 +123,70 @@ public class ResourceUrlFunction implements GssFunction {
     return strings.get(0);
   }
 
-  private String buildJavaExpression(String value, SourceCodeLocation location,
-                                     ErrorManager errorManager) throws GssFunctionException {
-    CssDotPathNode dotPathValue = new CssDotPathNode(value, "", "", location);
-
-    assertMethodIsValidResource(location, dotPathValue.getPathElements(), errorManager);
-
+  private String buildJavaExpression(CssDotPathNode dotPathValue) {
     return context.getImplementationSimpleSourceName() + ".this."
             + dotPathValue.getValue() + ".getSafeUri().asString()";
   }
 
-  private void assertMethodIsValidResource(SourceCodeLocation location, List<String> pathElements,
-                                           ErrorManager errorManager) throws GssFunctionException {
-    JType methodType;
+  /**
+   * Returns the data url of the resource if it is a DataResource small enough to be inlined,
+   * null otherwise. The data url is built like the DataResourceGenerator builds it.
+   */
+  private String getInlinedDataUrl(JMethod resourceMethod) {
+    if (dataUrlInliningThreshold <= 0 || !context.supportsDataUrls() ||
+        !dataResourceType.isAssignableFrom((JClassType) resourceMethod.getReturnType()) ||
+        resourceMethod.getAnnotation(DoNotEmbed.class) != null) {
+      return null;
+    }
+
+    try {
+      try {
+        // findResources picks the resource of the current locale
+        context.getRequirements().addPermutationAxis("locale");
+      } catch (BadPropertyValueException e) {
+        // OK, locale isn't defined
+      }
+
+      URL[] resources = ResourceGeneratorUtil.findResources(TreeLogger.NULL, context,
+          resourceMethod);
+      if (resources.length != 1) {
+        return null;
+      }
+
+      byte[] data = Resources.toByteArray(resources[0]);
+      if (data.length > dataUrlInliningThreshold) {
+        return null;
+      }
+
+      MimeType mimeTypeAnnotation = resourceMethod.getAnnotation(MimeType.class);
+      String mimeType = mimeTypeAnnotation != null ? mimeTypeAnnotation.value() :
+          resources[0].openConnection().getContentType();
+      if (mimeType == null || !INLINABLE_MIME_TYPE.matcher(mimeType).matches()) {
+        return null;
+      }
+
+      return "data:" + mimeType + ";base64," + BaseEncoding.base64().encode(data);
+    } catch (UnableToCompleteException e) {
+      // the DataResourceGenerator reports the error
+      return null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private JMethod getResourceMethod(SourceCodeLocation location, String path,
+                                    ErrorManager errorManager) throws GssFunctionException {
+    JMethod method;
 
     try {
-      methodType = ResourceGeneratorUtil.getMethodByPath(context.getClientBundleType(),
-              pathElements, null).getReturnType();
+      method = methodIndex.getMethod(path);
     } catch (NotFoundException e) {
       String message = e.getMessage();
       errorManager.report(new GssError(message, location));
       throw new GssFunctionException(message, e);
     }
 
+    JType methodType = method.getReturnType();
     if (!dataResourceType.isAssignableFrom((JClassType) methodType) &&
             !imageResourceType.isAssignableFrom((JClassType) methodType)) {
       String message = "Invalid method type for url substitution: " + methodType + ". " +
@@ -109,13 +194,14 @@ public class ResourceUrlFunction implements GssFunction {
       errorManager.report(new GssError(message, location));
       throw new GssFunctionException(message);
     }
+
+    return method;
   }
 
-  private CssFunctionNode buildUrlNode(String javaExpression, SourceCodeLocation location) {
+  private CssFunctionNode buildUrlNode(CssValueNode urlValue, SourceCodeLocation location) {
     CssFunctionNode urlNode = GssFunctions.createUrlNode("", location);
-    CssJavaExpressionNode cssJavaExpressionNode = new CssJavaExpressionNode(javaExpression);
     CssFunctionArgumentsNode arguments =
-            new CssFunctionArgumentsNode(ImmutableList.<CssValueNode>of(cssJavaExpressionNode));
+            new CssFunctionArgumentsNode(ImmutableList.<CssValueNode>of(urlValue));
     urlNode.setArguments(arguments);
 
     return urlNode;
@@ -17,15 +17,34 @@
 package com.google.gwt.resources.gss;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.css.SourceCodeLocation;
 import com.google.common.css.compiler.ast.CssValueNode;
 import com.google.common.css.compiler.ast.ErrorManager;
+import com.google.common.css.compiler.ast.GssError;
 import com.google.common.css.compiler.ast.GssFunction;
 import com.google.common.css.compiler.ast.GssFunctionException;
+import com.google.gwt.core.ext.typeinfo.NotFoundException;
 import com.google.gwt.resources.gss.ast.CssDotPathNode;
 
 import java.util.List;
 
 public class ValueFunction implements GssFunction {
+  private final ClientBundleMethodIndex methodIndex;
+
+  /**
+   * Creates a value function that doesn't check that the paths designate methods of the bundle.
+   */
+  public ValueFunction() {
+    this(null);
+  }
+
+  /**
+   * @param methodIndex index used to check that the paths designate methods of the bundle
+   */
+  public ValueFunction(ClientBundleMethodIndex methodIndex) {
+    this.methodIndex = methodIndex;
+  }
+
   public static String getName() {
     return "value";
   }
@@ -49,10 +68,10 @@ public class ValueFunction implements GssFunction {
       prefix = args.get(2).getValue();
     }
 
-    CssDotPathNode cssDotPathNode = new CssDotPathNode(functionPath, prefix, suffix, args.get(0).getSourceCodeLocation());
+    SourceCodeLocation location = args.get(0).getSourceCodeLocation();
+    checkPath(functionPath, location, errorManager);
 
-    // TODO add validation : maybe add a compilation pass that will validate the the method exist
-    // on the resource bundle
+    CssDotPathNode cssDotPathNode = new CssDotPathNode(functionPath, prefix, suffix, location);
 
     return ImmutableList.of((CssValueNode) cssDotPathNode);
   }
@@ -75,6 +94,21 @@ public class ValueFunction implements GssFunction {
     return CssDotPathNode.resolveExpression(null, functionPath, prefix, suffix);
   }
 
+  private void checkPath(String path, SourceCodeLocation location, ErrorManager errorManager)
+      throws GssFunctionException {
+    if (methodIndex == null) {
+      return;
+    }
+
+    try {
+      methodIndex.getMethod(path);
+    } catch (NotFoundException e) {
+      String message = e.getMessage();
+      errorManager.report(new GssError(message, location));
+      throw new GssFunctionException(message, e);
+    }
+  }
+
   @Override
   public Integer getNumExpectedArguments() {
     // number of arguments is variable
@@ -23,19 +23,30 @@ import com.google.common.base.Predicates;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableSet.Builder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.css.MinimalSubstitutionMap;
 import com.google.common.css.PrefixingSubstitutionMap;
 import com.google.common.css.SourceCode;
 import com.google.common.css.SourceCodeLocation;
 import com.google.common.css.SubstitutionMap;
+import com.google.common.css.compiler.ast.CssBlockNode;
+import com.google.common.css.compiler.ast.CssClassSelectorNode;
+import com.google.common.css.compiler.ast.CssConditionalBlockNode;
 import com.google.common.css.compiler.ast.CssDefinitionNode;
+import com.google.common.css.compiler.ast.CssNode;
 import com.google.common.css.compiler.ast.CssNumericNode;
+import com.google.common.css.compiler.ast.CssRootNode;
+import com.google.common.css.compiler.ast.CssRulesetNode;
 import com.google.common.css.compiler.ast.CssTree;
 import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
 import com.google.common.css.compiler.ast.ErrorManager;
 import com.google.common.css.compiler.ast.GssError;
 import com.google.common.css.compiler.ast.GssFunction;
@@ -45,6 +56,7 @@ import com.google.common.css.compiler.passes.AbbreviatePositionalValues;
 import com.google.common.css.compiler.passes.CheckDependencyNodes;
 import com.google.common.css.compiler.passes.CollectConstantDefinitions;
 import com.google.common.css.compiler.passes.CollectMixinDefinitions;
+import com.google.common.css.compiler.passes.CompactPrinter;
 import com.google.common.css.compiler.passes.ColorValueOptimizer;
 import com.google.common.css.compiler.passes.ConstantDefinitions;
 import com.google.common.css.compiler.passes.CreateComponentNodes;
@@ -70,6 +82,10 @@ import com.google.common.css.compiler.passes.ReplaceMixins;
 import com.google.common.css.compiler.passes.ResolveCustomFunctionNodes;
 import com.google.common.css.compiler.passes.SplitRulesetNodes;
 import com.google.common.io.Resources;
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.RunAsyncCallback;
 import com.google.gwt.core.ext.BadPropertyValueException;
 import com.google.gwt.core.ext.ConfigurationProperty;
 import com.google.gwt.core.ext.Generator;
@@ -86,6 +102,8 @@ import com.google.gwt.core.ext.typeinfo.NotFoundException;
 import com.google.gwt.core.ext.typeinfo.TypeOracle;
 import com.google.gwt.dev.util.Util;
 import com.google.gwt.i18n.client.LocaleInfo;
+import com.google.gwt.resources.client.AsyncGssResource;
+import com.google.gwt.resources.client.ClientBundle;
 import com.google.gwt.resources.client.CssResource;
 import com.google.gwt.resources.client.CssResource.ClassName;
 import com.google.gwt.resources.client.CssResource.Import;
@@ -93,22 +111,41 @@ import com.google.gwt.resources.client.CssResource.ImportedWithPrefix;
 import com.google.gwt.resources.client.CssResource.NotStrict;
 import com.google.gwt.resources.client.CssResource.Shared;
 import com.google.gwt.resources.client.GssResource;
+import com.google.gwt.resources.client.GssInstrumentation;
+import com.google.gwt.resources.client.GssResource.AutoInject;
+import com.google.gwt.resources.client.GssStyleInjector;
 import com.google.gwt.resources.client.ResourcePrototype;
+import com.google.gwt.resources.client.ThemedGssResource;
 import com.google.gwt.resources.converter.Css2Gss;
+import com.google.gwt.resources.ext.ClientBundleFields;
 import com.google.gwt.resources.ext.ClientBundleRequirements;
 import com.google.gwt.resources.ext.ResourceContext;
 import com.google.gwt.resources.ext.ResourceGeneratorUtil;
 import com.google.gwt.resources.ext.SupportsGeneratorResultCaching;
+import com.google.gwt.resources.gss.CascadeConflictIndex;
+import com.google.gwt.resources.gss.ClientBundleMethodIndex;
 import com.google.gwt.resources.gss.CreateRuntimeConditionalNodes;
 import com.google.gwt.resources.gss.CssPrinter;
 import com.google.gwt.resources.gss.DisallowDefInsideRuntimeConditionalNode;
+import com.google.gwt.resources.gss.EliminateUnusedDefinitions;
 import com.google.gwt.resources.gss.ExtendedEliminateConditionalNodes;
 import com.google.gwt.resources.gss.ExternalClassesCollector;
+import com.google.gwt.resources.gss.ExtractNonScreenMediaRules;
+import com.google.gwt.resources.gss.FoldConstantCalcExpressions;
+import com.google.gwt.resources.gss.GlobalMinimalSubstitutionMap;
+import com.google.gwt.resources.gss.GroupSpriteDeclarations;
 import com.google.gwt.resources.gss.GwtGssFunctionMapProvider;
 import com.google.gwt.resources.gss.ImageSpriteCreator;
+import com.google.gwt.resources.gss.MergeLonghandDeclarations;
+import com.google.gwt.resources.gss.MergeMediaRuleNodesWithSameQuery;
+import com.google.gwt.resources.gss.MergeNonAdjacentRulesetNodesWithSameDeclarations;
 import com.google.gwt.resources.gss.PermutationsCollector;
+import com.google.gwt.resources.gss.PrefixedReplacementMap;
 import com.google.gwt.resources.gss.RecordingBidiFlipper;
+import com.google.gwt.resources.gss.RemoveUnsupportedVendorPrefixes;
 import com.google.gwt.resources.gss.RenamingSubstitutionMap;
+import com.google.gwt.resources.gss.ReorderRulesetsForCompression;
+import com.google.gwt.resources.gss.ReplaceRuntimeValuesWithCustomProperties;
 import com.google.gwt.resources.gss.RuntimeConditionalNodeCollector;
 import com.google.gwt.resources.rg.CssResourceGenerator.JClassOrderComparator;
 import com.google.gwt.user.rebind.SourceWriter;
@@ -116,18 +153,28 @@ import com.google.gwt.user.rebind.StringSourceWriter;
 import org.apache.commons.io.IOUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.Callable;
@@ -183,19 +230,25 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
   // TODO rename this class
   private static class OptimizationInfo {
     final ConstantDefinitions constantDefinitions;
+    final Map<String, String> customProperties;
 
-    private OptimizationInfo(ConstantDefinitions constantDefinitions) {
+    private OptimizationInfo(ConstantDefinitions constantDefinitions,
+        Map<String, String> customProperties) {
       this.constantDefinitions = constantDefinitions;
+      this.customProperties = customProperties;
     }
   }
 
   private static class ExtendedCssTree {
     private final CssTree tree;
     private final List<String> permutationAxes;
+    private final Set<String> externalClasses;
 
-    private ExtendedCssTree(CssTree tree, List<String> permutationAxis) {
+    private ExtendedCssTree(CssTree tree, List<String> permutationAxis,
+        Set<String> externalClasses) {
       this.tree = tree;
       this.permutationAxes = permutationAxis;
+      this.externalClasses = externalClasses;
     }
 
     public CssTree getCssTree() {
@@ -205,6 +258,10 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     public List<String> getPermutationAxes() {
       return permutationAxes;
     }
+
+    public Set<String> getExternalClasses() {
+      return externalClasses;
+    }
   }
 
   private static final Cache<List<URL>, ExtendedCssTree> TREE_CACHE = CacheBuilder.newBuilder()
@@ -218,7 +275,28 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
   // as short as possible. For instance if we have two GssResources to compile, the  prefix
   // for the first resource will be 'a' and the prefix for the second resource will be 'b' and so on
   private static final SubstitutionMap resourcePrefixBuilder = new MinimalSubstitutionMap();
+  private static final SubstitutionMap customPropertyNameBuilder = new MinimalSubstitutionMap();
+  // the custom properties are set on the document element, shared with the rest of the page
+  private static final String CUSTOM_PROPERTY_PREFIX = "gwt-";
   private static final String KEY_LEGACY = "CssResource.legacy";
+  private static final String KEY_ELIMINATE_UNUSED_KEYFRAMES_AND_FONT_FACES =
+      "CssResource.eliminateUnusedKeyframesAndFontFaces";
+  private static final String KEY_PRUNE_VENDOR_PREFIXES = "CssResource.pruneVendorPrefixes";
+  private static final String KEY_VENDOR_PREFIXES = "CssResource.vendorPrefixes";
+  private static final String USER_AGENT_PROPERTY = "user.agent";
+  private static final String KEY_REORDER_FOR_COMPRESSION =
+      "CssResource.reorderRulesetsForCompression";
+  private static final String KEY_COMPRESSION_WINDOW_SIZE = "CssResource.compressionWindowSize";
+  private static final String KEY_OBFUSCATION_NAMESPACE = "CssResource.obfuscationNamespace";
+  private static final String KEY_INPUT_RENAMING_MAP = "CssResource.inputRenamingMap";
+  private static final String KEY_OUTPUT_RENAMING_MAP = "CssResource.outputRenamingMap";
+  private static final String KEY_SHARE_COMMON_RULESETS = "CssResource.shareCommonRulesets";
+  private static final String KEY_INJECTION_MODE = "CssResource.injectionMode";
+  private static final String KEY_DEFER_NON_SCREEN_MEDIA = "CssResource.deferNonScreenMedia";
+  private static final String KEY_RESOLVE_SPRITE_GEOMETRY = "CssResource.resolveSpriteGeometry";
+  private static final String KEY_DATA_URL_INLINING_THRESHOLD =
+      "CssResource.dataUrlInliningThreshold";
+  private static final String INSTRUMENTATION_PROPERTY = "gss.instrumentation";
   private static final String KEY_STYLE = "CssResource.style";
   private static final String ALLOWED_AT_RULE = "CssResource.allowedAtRules";
   private static final String ALLOWED_FUNCTIONS = "CssResource.allowedFunctions";
@@ -227,6 +305,8 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
   private static final String KEY_BY_CLASS_AND_METHOD = "cssResourceClassAndMethod";
   private static final String KEY_HAS_CACHED_DATA = "hasCachedData";
   private static final String KEY_SHARED_METHODS = "sharedMethods";
+  private static final String KEY_GLOBAL_SUBSTITUTION_MAP = "globalSubstitutionMap";
+  private static final String KEY_PREFIXED_REPLACEMENT_MAPS = "prefixedReplacementMaps";
   private static final char[] BASE32_CHARS = new char[]{
       'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N',
       'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', '0', '1',
@@ -256,26 +336,50 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
   private JMethod getTextMethod;
   private JMethod ensuredInjectedMethod;
   private JMethod getNameMethod;
+  private JClassType asyncGssResourceInterface;
+  private JClassType themedGssResourceInterface;
   private String obfuscationPrefix;
   private CssObfuscationStyle obfuscationStyle;
   private Set<String> allowedAtRules;
   private Map<JClassType, Map<String, String>> replacementsByClassAndMethod;
   private Map<JMethod, String> replacementsForSharedMethods;
+  private GlobalMinimalSubstitutionMap globalSubstitutionMap;
+  private Map<String, PrefixedReplacementMap> prefixedReplacementMaps;
   private boolean allowLegacy;
+  private boolean eliminateUnusedKeyframesAndFontFaces;
+  private boolean pruneVendorPrefixes;
+  private SetMultimap<String, String> vendorPrefixesByUserAgent;
+  private boolean reorderRulesetsForCompression;
+  private int compressionWindowSize;
+  private boolean globalObfuscationNamespace;
+  private String inputRenamingMap;
+  private String outputRenamingMap;
+  private boolean shareCommonRulesets;
+  private boolean insertRuleInjection;
+  private boolean deferNonScreenMedia;
+  private boolean resolveSpriteGeometry;
+  private int dataUrlInliningThreshold;
+  // methods of the bundle by dotted path, shared by the passes resolving them
+  private ClientBundleMethodIndex methodIndex;
+  private Map<String, GssFunction> gssFunctionMap;
+  private boolean instrumentationEnabled;
+  private Map<JMethod, Map<String, String>> substitutionMaps;
+  private Map<JMethod, OptimizationInfo> optimizationInfos;
+  private Set<JMethod> methodsUsingSharedCss;
+  private Map<JMethod, ExtractNonScreenMediaRules> nonScreenMediaRules;
+  private String sharedCssField;
+  private String sharedCssInjectedField;
 
   @Override
   public String createAssignment(TreeLogger logger, ResourceContext context, JMethod method)
       throws UnableToCompleteException {
-    ExtendedCssTree extendedCssTree = cssTreeMap.get(method);
-
-    Map<String, String> substitutionMap = doClassRenaming(extendedCssTree.getCssTree(),
-        method, logger, context);
-
-    // TODO : Should we foresee configuration properties for simplifyCss and eliminateDeadCode
-    // booleans ?
-    OptimizationInfo optimizationInfo = optimize(extendedCssTree, context, true, true);
+    // the trees may have been renamed and optimized by createFields
+    if (!optimizationInfos.containsKey(method)) {
+      renameAndOptimize(logger, context, method);
+    }
 
-    checkErrors();
+    Map<String, String> substitutionMap = substitutionMaps.get(method);
+    OptimizationInfo optimizationInfo = optimizationInfos.get(method);
 
     SourceWriter sw = new StringSourceWriter();
     sw.println("new " + method.getReturnType().getQualifiedSourceName() + "() {");
@@ -289,9 +393,167 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     return sw.toString();
   }
 
+  private void renameAndOptimize(TreeLogger logger, ResourceContext context, JMethod method)
+      throws UnableToCompleteException {
+    ExtendedCssTree extendedCssTree = cssTreeMap.get(method);
+
+    substitutionMaps.put(method, doClassRenaming(extendedCssTree, method, logger, context));
+
+    // TODO : Should we foresee configuration properties for simplifyCss and eliminateDeadCode
+    // booleans ?
+    optimizationInfos.put(method, optimize(extendedCssTree, context, method, true, true));
+
+    // the css of an async resource is already out of the initial fragment
+    if (deferNonScreenMedia && !isAsync(method)) {
+      ExtractNonScreenMediaRules extractNonScreenMediaRules =
+          new ExtractNonScreenMediaRules(extendedCssTree.getCssTree());
+      extractNonScreenMediaRules.runPass();
+
+      if (!extractNonScreenMediaRules.getMediaQueries().isEmpty()) {
+        nonScreenMediaRules.put(method, extractNonScreenMediaRules);
+      }
+    }
+
+    checkErrors();
+  }
+
+  @Override
+  public void createFields(TreeLogger logger, ResourceContext context, ClientBundleFields fields)
+      throws UnableToCompleteException {
+    if (!shareCommonRulesets || cssTreeMap.size() < 2) {
+      return;
+    }
+
+    // Rulesets can only be compared once the trees are renamed and optimized. Sort the methods to
+    // keep the generated code stable.
+    List<JMethod> methods = Lists.newArrayList(cssTreeMap.keySet());
+    // the shared css is part of the bundle, the css loaded asynchronously stays apart
+    for (Iterator<JMethod> it = methods.iterator(); it.hasNext(); ) {
+      if (isAsync(it.next())) {
+        it.remove();
+      }
+    }
+    Collections.sort(methods, new Comparator<JMethod>() {
+      @Override
+      public int compare(JMethod method1, JMethod method2) {
+        return method1.getName().compareTo(method2.getName());
+      }
+    });
+
+    for (JMethod method : methods) {
+      renameAndOptimize(logger, context, method);
+    }
+
+    CssTree sharedTree = methods.size() < 2 ? null : extractSharedRulesets(methods);
+
+    if (sharedTree != null) {
+      TypeOracle typeOracle = context.getGeneratorContext().getTypeOracle();
+      JClassType stringType = typeOracle.findType(String.class.getName());
+
+      if (insertRuleInjection) {
+        // the shared tree only contains rulesets, it can always be split in rules
+        sharedCssField = fields.define(typeOracle.getArrayType(stringType), "sharedCss",
+            getCssRulesExpression(sharedTree), false, true);
+      } else {
+        sharedCssField = fields.define(stringType, "sharedCss", getCssExpression(sharedTree),
+            false, true);
+      }
+      sharedCssInjectedField = fields.define(JPrimitiveType.BOOLEAN, "sharedCssInjected", null,
+          true, false);
+    }
+  }
+
+  /**
+   * Removes from the trees the top-level rulesets that are identical in several trees and returns
+   * them in a new tree, or null if no ruleset is shared. A ruleset is shared only if it can be
+   * moved at the beginning of every tree containing it without changing the cascade.
+   */
+  private CssTree extractSharedRulesets(List<JMethod> methods) {
+    Multiset<String> occurrences = HashMultiset.create();
+    Map<String, CssRulesetNode> rulesetsByKey = new LinkedHashMap<String, CssRulesetNode>();
+
+    for (JMethod method : methods) {
+      Set<String> keys = new HashSet<String>();
+
+      for (CssNode child : cssTreeMap.get(method).getCssTree().getRoot().getBody()
+          .childIterable()) {
+        if (child instanceof CssRulesetNode) {
+          String key = CompactPrinter.printCompactly(child);
+          if (keys.add(key)) {
+            occurrences.add(key);
+          }
+          if (!rulesetsByKey.containsKey(key)) {
+            rulesetsByKey.put(key, (CssRulesetNode) child);
+          }
+        }
+      }
+    }
+
+    Set<String> sharedKeys = new HashSet<String>();
+    for (Multiset.Entry<String> entry : occurrences.entrySet()) {
+      if (entry.getCount() > 1) {
+        sharedKeys.add(entry.getElement());
+      }
+    }
+
+    for (JMethod method : methods) {
+      CascadeConflictIndex conflictIndex = new CascadeConflictIndex();
+      List<CssNode> children = cssTreeMap.get(method).getCssTree().getRoot().getBody()
+          .getChildren();
+
+      for (int i = 0; i < children.size(); i++) {
+        CssNode child = children.get(i);
+        if (child instanceof CssRulesetNode && !conflictIndex.canMoveAfter(child, 0)) {
+          sharedKeys.remove(CompactPrinter.printCompactly(child));
+        }
+        conflictIndex.record(child, i + 1);
+      }
+    }
+
+    if (sharedKeys.isEmpty()) {
+      return null;
+    }
+
+    CssTree sharedTree = new CssTree(new SourceCode("[shared rulesets]", ""));
+    for (Entry<String, CssRulesetNode> entry : rulesetsByKey.entrySet()) {
+      if (sharedKeys.contains(entry.getKey())) {
+        sharedTree.getRoot().getBody().addChildToBack(entry.getValue().deepCopy());
+      }
+    }
+
+    for (JMethod method : methods) {
+      CssBlockNode body = cssTreeMap.get(method).getCssTree().getRoot().getBody();
+
+      // start by the end in order to keep the indexes valid
+      for (int i = body.numChildren() - 1; i >= 0; i--) {
+        CssNode child = body.getChildAt(i);
+        if (child instanceof CssRulesetNode &&
+            sharedKeys.contains(CompactPrinter.printCompactly(child))) {
+          body.replaceChildAt(i, Collections.<CssNode>emptyList());
+          methodsUsingSharedCss.add(method);
+        }
+      }
+    }
+
+    return sharedTree;
+  }
+
+  @Override
+  public void finish(TreeLogger logger, ResourceContext context)
+      throws UnableToCompleteException {
+    // the map is shared by all the bundles, each bundle rewrites it with the names allocated so far
+    if (!outputRenamingMap.isEmpty()) {
+      writeRenamingMap(logger);
+    }
+  }
+
   @Override
   public void init(TreeLogger logger, ResourceContext context) throws UnableToCompleteException {
     cssTreeMap = new IdentityHashMap<JMethod, ExtendedCssTree>();
+    substitutionMaps = new IdentityHashMap<JMethod, Map<String, String>>();
+    optimizationInfos = new IdentityHashMap<JMethod, OptimizationInfo>();
+    methodsUsingSharedCss = Sets.newIdentityHashSet();
+    nonScreenMediaRules = new IdentityHashMap<JMethod, ExtractNonScreenMediaRules>();
     errorManager = new LoggerErrorManager(logger);
 
     allowedNonStandardFunctions = new HashSet<String>();
@@ -315,18 +577,99 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
       allowLegacy =
           "true".equals(propertyOracle.getConfigurationProperty(KEY_LEGACY).getValues().get(0));
 
+      eliminateUnusedKeyframesAndFontFaces = "true".equals(propertyOracle
+          .getConfigurationProperty(KEY_ELIMINATE_UNUSED_KEYFRAMES_AND_FONT_FACES).getValues()
+          .get(0));
+
+      pruneVendorPrefixes = "true".equals(propertyOracle
+          .getConfigurationProperty(KEY_PRUNE_VENDOR_PREFIXES).getValues().get(0));
+      vendorPrefixesByUserAgent = parseVendorPrefixes(propertyOracle
+          .getConfigurationProperty(KEY_VENDOR_PREFIXES).getValues(), logger);
+
+      reorderRulesetsForCompression = "true".equals(propertyOracle
+          .getConfigurationProperty(KEY_REORDER_FOR_COMPRESSION).getValues().get(0));
+      String windowSize = propertyOracle.getConfigurationProperty(KEY_COMPRESSION_WINDOW_SIZE)
+          .getValues().get(0);
+      try {
+        compressionWindowSize = Integer.parseInt(windowSize);
+      } catch (NumberFormatException e) {
+        logger.log(Type.ERROR, "Invalid value [" + windowSize + "] for the configuration " +
+            "property " + KEY_COMPRESSION_WINDOW_SIZE + ". Expected a number of bytes");
+        throw new UnableToCompleteException();
+      }
+
+      inputRenamingMap = propertyOracle.getConfigurationProperty(KEY_INPUT_RENAMING_MAP)
+          .getValues().get(0).trim();
+      outputRenamingMap = propertyOracle.getConfigurationProperty(KEY_OUTPUT_RENAMING_MAP)
+          .getValues().get(0).trim();
+
+      // names allocated per type depend on the set of types of the compilation and cannot be
+      // kept stable, so a renaming map implies the global namespace.
+      globalObfuscationNamespace = "global".equals(propertyOracle
+          .getConfigurationProperty(KEY_OBFUSCATION_NAMESPACE).getValues().get(0)) ||
+          !inputRenamingMap.isEmpty() || !outputRenamingMap.isEmpty();
+
+      shareCommonRulesets = "true".equals(propertyOracle
+          .getConfigurationProperty(KEY_SHARE_COMMON_RULESETS).getValues().get(0));
+
+      deferNonScreenMedia = "true".equals(propertyOracle
+          .getConfigurationProperty(KEY_DEFER_NON_SCREEN_MEDIA).getValues().get(0));
+
+      resolveSpriteGeometry = "true".equals(propertyOracle
+          .getConfigurationProperty(KEY_RESOLVE_SPRITE_GEOMETRY).getValues().get(0));
+
+      String inliningThreshold = propertyOracle
+          .getConfigurationProperty(KEY_DATA_URL_INLINING_THRESHOLD).getValues().get(0);
+      try {
+        dataUrlInliningThreshold = Integer.parseInt(inliningThreshold);
+      } catch (NumberFormatException e) {
+        logger.log(Type.ERROR, "Invalid value [" + inliningThreshold + "] for the configuration " +
+            "property " + KEY_DATA_URL_INLINING_THRESHOLD + ". Expected a number of bytes");
+        throw new UnableToCompleteException();
+      }
+
+      String injectionMode = propertyOracle.getConfigurationProperty(KEY_INJECTION_MODE)
+          .getValues().get(0);
+      if (!"text".equals(injectionMode) && !"insertRule".equals(injectionMode)) {
+        logger.log(TreeLogger.ERROR, "Invalid value [" + injectionMode + "] for the " +
+            "configuration property " + KEY_INJECTION_MODE + ". Expected text or insertRule");
+        throw new UnableToCompleteException();
+      }
+      insertRuleInjection = "insertRule".equals(injectionMode);
+
       ClientBundleRequirements requirements = context.getRequirements();
       requirements.addConfigurationProperty(KEY_STYLE);
       requirements.addConfigurationProperty(KEY_OBFUSCATION_PREFIX);
+      requirements.addConfigurationProperty(KEY_ELIMINATE_UNUSED_KEYFRAMES_AND_FONT_FACES);
+      requirements.addConfigurationProperty(KEY_PRUNE_VENDOR_PREFIXES);
+      requirements.addConfigurationProperty(KEY_VENDOR_PREFIXES);
+      requirements.addConfigurationProperty(KEY_REORDER_FOR_COMPRESSION);
+      requirements.addConfigurationProperty(KEY_COMPRESSION_WINDOW_SIZE);
+      requirements.addConfigurationProperty(KEY_OBFUSCATION_NAMESPACE);
+      requirements.addConfigurationProperty(KEY_INPUT_RENAMING_MAP);
+      requirements.addConfigurationProperty(KEY_OUTPUT_RENAMING_MAP);
+      requirements.addConfigurationProperty(KEY_SHARE_COMMON_RULESETS);
+      requirements.addConfigurationProperty(KEY_INJECTION_MODE);
+      requirements.addConfigurationProperty(KEY_DEFER_NON_SCREEN_MEDIA);
+      requirements.addConfigurationProperty(KEY_RESOLVE_SPRITE_GEOMETRY);
+      requirements.addConfigurationProperty(KEY_DATA_URL_INLINING_THRESHOLD);
     } catch (BadPropertyValueException e) {
       logger.log(TreeLogger.ERROR, "Unable to query module property", e);
       throw new UnableToCompleteException();
     }
 
+    methodIndex = new ClientBundleMethodIndex(context.getClientBundleType());
+    gssFunctionMap = new GwtGssFunctionMapProvider(context, methodIndex,
+        dataUrlInliningThreshold).get();
+
+    instrumentationEnabled = isInstrumentationEnabled(context);
+
     TypeOracle typeOracle = context.getGeneratorContext().getTypeOracle();
     JClassType cssResourceInterface = typeOracle.findType(CssResource.class.getCanonicalName());
     JClassType resourcePrototypeInterface = typeOracle.findType(ResourcePrototype.class
         .getCanonicalName());
+    asyncGssResourceInterface = typeOracle.findType(AsyncGssResource.class.getCanonicalName());
+    themedGssResourceInterface = typeOracle.findType(ThemedGssResource.class.getCanonicalName());
 
     try {
       getTextMethod = cssResourceInterface.getMethod("getText", new JType[0]);
@@ -338,21 +681,144 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
       throw new UnableToCompleteException();
     }
 
-    initReplacement(context);
+    initReplacement(logger, context);
   }
 
-  private void initReplacement(ResourceContext context) {
+  private void initReplacement(TreeLogger logger, ResourceContext context)
+      throws UnableToCompleteException {
     if (context.getCachedData(KEY_HAS_CACHED_DATA, Boolean.class) != Boolean.TRUE) {
 
       context.putCachedData(KEY_SHARED_METHODS, new IdentityHashMap<JMethod, String>());
       context.putCachedData(KEY_BY_CLASS_AND_METHOD, new IdentityHashMap<JClassType, Map<String,
           String>>());
+      context.putCachedData(KEY_PREFIXED_REPLACEMENT_MAPS,
+          new HashMap<String, PrefixedReplacementMap>());
       context.putCachedData(KEY_HAS_CACHED_DATA, Boolean.TRUE);
     }
 
     replacementsByClassAndMethod = context.getCachedData(KEY_BY_CLASS_AND_METHOD, Map.class);
     replacementsForSharedMethods = context.getCachedData(KEY_SHARED_METHODS,
         Map.class);
+    // the cached data is only typed by its raw class
+    @SuppressWarnings("unchecked")
+    Map<String, PrefixedReplacementMap> cachedReplacementMaps =
+        context.getCachedData(KEY_PREFIXED_REPLACEMENT_MAPS, Map.class);
+    prefixedReplacementMaps = cachedReplacementMaps;
+
+    if (globalObfuscationNamespace &&
+        context.getCachedData(KEY_GLOBAL_SUBSTITUTION_MAP, GlobalMinimalSubstitutionMap.class) ==
+            null) {
+      // one namespace for all the GssResource types of the compilation
+      GlobalMinimalSubstitutionMap substitutionMap =
+          new GlobalMinimalSubstitutionMap(obfuscationPrefix);
+
+      for (Entry<String, String> mapping : readRenamingMap(logger).entrySet()) {
+        substitutionMap.put(mapping.getKey(), mapping.getValue());
+      }
+
+      allocateGlobalNames(context, substitutionMap);
+
+      context.putCachedData(KEY_GLOBAL_SUBSTITUTION_MAP, substitutionMap);
+    }
+    globalSubstitutionMap = context.getCachedData(KEY_GLOBAL_SUBSTITUTION_MAP,
+        GlobalMinimalSubstitutionMap.class);
+  }
+
+  /**
+   * Reads the renaming map written by a previous compilation. The keys of the map are the
+   * qualified names of the types followed by the names of the style classes, the values are the
+   * obfuscated names. Returns an empty map if there is no previous map.
+   */
+  private Map<String, String> readRenamingMap(TreeLogger logger)
+      throws UnableToCompleteException {
+    Map<String, String> renamingMap = new HashMap<String, String>();
+
+    if (inputRenamingMap.isEmpty()) {
+      return renamingMap;
+    }
+
+    File file = new File(inputRenamingMap);
+    if (!file.isFile()) {
+      logger.log(Type.INFO, "No renaming map found at " + file.getAbsolutePath() +
+          ", all the style classes will get new names");
+      return renamingMap;
+    }
+
+    InputStream is = null;
+    try {
+      is = new FileInputStream(file);
+      Properties properties = new Properties();
+      properties.load(is);
+
+      for (String key : properties.stringPropertyNames()) {
+        renamingMap.put(key, properties.getProperty(key));
+      }
+    } catch (IOException e) {
+      logger.log(Type.ERROR, "Unable to read the renaming map " + file.getAbsolutePath(), e);
+      throw new UnableToCompleteException();
+    } finally {
+      IOUtils.closeQuietly(is);
+    }
+
+    return renamingMap;
+  }
+
+  /**
+   * Writes the names allocated so far, including the ones read from the previous renaming map, so
+   * that the next compilation can reuse them. Entries are sorted to keep the file diff-friendly.
+   */
+  private void writeRenamingMap(TreeLogger logger) throws UnableToCompleteException {
+    File file = new File(outputRenamingMap);
+    PrintWriter writer = null;
+    try {
+      if (file.getParentFile() != null) {
+        file.getParentFile().mkdirs();
+      }
+      writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+          Charsets.UTF_8));
+      // type names and css identifiers don't contain any character to escape in a properties file
+      for (Entry<String, String> mapping :
+          new TreeMap<String, String>(globalSubstitutionMap.getMappings()).entrySet()) {
+        writer.println(mapping.getKey() + "=" + mapping.getValue());
+      }
+
+      if (writer.checkError()) {
+        throw new IOException("Error while writing " + file.getAbsolutePath());
+      }
+    } catch (IOException e) {
+      logger.log(Type.ERROR, "Unable to write the renaming map " + file.getAbsolutePath(), e);
+      throw new UnableToCompleteException();
+    } finally {
+      IOUtils.closeQuietly(writer);
+    }
+  }
+
+  /**
+   * Parses the values of the vendor prefixes configuration property. Each value has the form
+   * {@code userAgent:-prefix-}.
+   */
+  private SetMultimap<String, String> parseVendorPrefixes(List<String> values, TreeLogger logger)
+      throws UnableToCompleteException {
+    SetMultimap<String, String> prefixesByUserAgent = HashMultimap.create();
+
+    for (String value : values) {
+      if (value.trim().isEmpty()) {
+        continue;
+      }
+
+      int separator = value.indexOf(':');
+      String prefix = separator < 0 ? "" : value.substring(separator + 1).trim();
+      if (separator <= 0 || !prefix.startsWith("-") || !prefix.endsWith("-") ||
+          prefix.length() < 3) {
+        logger.log(Type.ERROR, "Invalid value [" + value + "] for the configuration property " +
+            KEY_VENDOR_PREFIXES + ". Expected userAgent:-prefix-");
+        throw new UnableToCompleteException();
+      }
+
+      prefixesByUserAgent.put(value.substring(0, separator).trim(), prefix);
+    }
+
+    return prefixesByUserAgent;
   }
 
   private String getObfuscationPrefix(PropertyOracle propertyOracle, ResourceContext context)
@@ -450,10 +916,18 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     }
 
     ExtendedCssTree finalTree = new ExtendedCssTree(deepCopy(extTree.getCssTree()),
-        extTree.getPermutationAxes());
+        extTree.getPermutationAxes(), extTree.getExternalClasses());
     cssTreeMap.put(method, finalTree);
 
-    for (String permutationAxis : extTree.getPermutationAxes()) {
+    List<String> permutationAxes = Lists.newArrayList(extTree.getPermutationAxes());
+    if (pruneVendorPrefixes && !permutationAxes.contains(USER_AGENT_PROPERTY) &&
+        RemoveUnsupportedVendorPrefixes.containsVendorPrefixes(finalTree.getCssTree(),
+            Sets.newHashSet(vendorPrefixesByUserAgent.values()))) {
+      // the pruning of the vendor prefixes makes the css depend on the user agent.
+      permutationAxes.add(USER_AGENT_PROPERTY);
+    }
+
+    for (String permutationAxis : permutationAxes) {
       try {
         context.getRequirements().addPermutationAxis(permutationAxis);
       } catch (BadPropertyValueException e) {
@@ -466,8 +940,10 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
   @Override
   protected String getCssExpression(TreeLogger logger, ResourceContext context,
       JMethod method) throws UnableToCompleteException {
-    CssTree cssTree = cssTreeMap.get(method).getCssTree();
+    return getCssExpression(cssTreeMap.get(method).getCssTree());
+  }
 
+  private String getCssExpression(CssTree cssTree) {
     String standard = printCssTree(cssTree);
 
     // TODO add configuration properties for swapLtrRtlInUrl, swapLeftRightInUrl and
@@ -485,6 +961,50 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     }
   }
 
+  /**
+   * Returns a java expression building the array of the rules of the tree, one rule per top-level
+   * node. The tree must not contain runtime conditional blocks at the top level.
+   */
+  private String getCssRulesExpression(CssTree cssTree) {
+    String standard = printCssRules(cssTree);
+
+    RecordingBidiFlipper recordingBidiFlipper =
+        new RecordingBidiFlipper(cssTree.getMutatingVisitController(), false, false, true);
+    recordingBidiFlipper.runPass();
+
+    if (recordingBidiFlipper.nodeFlipped()) {
+      String reversed = printCssRules(cssTree);
+      return LocaleInfo.class.getName() + ".getCurrentLocale().isRTL() ? "
+          + reversed + " : " + standard;
+    } else {
+      return standard;
+    }
+  }
+
+  private String printCssRules(CssTree cssTree) {
+    StringBuilder rules = new StringBuilder("new String[] {");
+    boolean first = true;
+
+    for (CssNode child : cssTree.getRoot().getBody().childIterable()) {
+      // definitions are not printed
+      if (child instanceof CssDefinitionNode) {
+        continue;
+      }
+
+      CssTree ruleTree = new CssTree(cssTree.getSourceCode(), new CssRootNode(
+          new CssBlockNode(false, Lists.newArrayList(child.deepCopy()))));
+      String rule = printCssTree(ruleTree);
+
+      if (!first) {
+        rules.append(", ");
+      }
+      rules.append(rule);
+      first = false;
+    }
+
+    return rules.append("}").toString();
+  }
+
   private void checkErrors() throws UnableToCompleteException {
     if (errorManager.hasErrors()) {
       throw new UnableToCompleteException();
@@ -495,15 +1015,24 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     return new CssTree(cssTree.getSourceCode(), cssTree.getRoot().deepCopy());
   }
 
-  private Map<String, String> doClassRenaming(CssTree cssTree, JMethod method, TreeLogger logger,
-      ResourceContext context) throws UnableToCompleteException {
+  private Map<String, String> doClassRenaming(ExtendedCssTree extendedCssTree, JMethod method,
+      TreeLogger logger, ResourceContext context) throws UnableToCompleteException {
+    CssTree cssTree = extendedCssTree.getCssTree();
+    Set<String> externalClasses = extendedCssTree.getExternalClasses();
+
+    if (globalObfuscationNamespace) {
+      // external classes are not renamed: their names must never be allocated.
+      for (String external : externalClasses) {
+        globalSubstitutionMap.reserve(external);
+      }
+    }
+
     Map<String, Map<String, String>> replacementsWithPrefix = computeReplacements(method, logger,
         context);
 
-    Set<String> externalClasses = collectExternalClasses(cssTree);
-
-    RenamingSubstitutionMap substitutionMap = new RenamingSubstitutionMap(replacementsWithPrefix,
-        externalClasses, isStrictResource(method), logger);
+    RenamingSubstitutionMap substitutionMap = new RenamingSubstitutionMap(
+        getPrefixedReplacementMap(method, replacementsWithPrefix, externalClasses),
+        isStrictResource(method), logger);
 
     new CssClassRenaming(cssTree.getMutatingVisitController(), substitutionMap, null).runPass();
 
@@ -511,6 +1040,10 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
       throw new UnableToCompleteException();
     }
 
+    if (globalObfuscationNamespace) {
+      checkExternalClassCollisions(replacementsWithPrefix, externalClasses, logger);
+    }
+
     Map<String, String> mapping = replacementsWithPrefix.get("");
 
     mapping = Maps.newHashMap(Maps.filterKeys(mapping, Predicates.in(substitutionMap
@@ -524,6 +1057,175 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     return mapping;
   }
 
+  /**
+   * Reports an error if an external class has the same name as an obfuscated class. It can happen
+   * when the obfuscated name has been allocated before the external class was known.
+   */
+  private void checkExternalClassCollisions(Map<String, Map<String, String>> replacementsWithPrefix,
+      Set<String> externalClasses, TreeLogger logger) throws UnableToCompleteException {
+    boolean collision = false;
+
+    for (Map<String, String> replacements : replacementsWithPrefix.values()) {
+      for (Entry<String, String> replacement : replacements.entrySet()) {
+        if (externalClasses.contains(replacement.getValue()) &&
+            !replacement.getKey().equals(replacement.getValue())) {
+          logger.log(Type.ERROR, "The obfuscated name of the style class " +
+              replacement.getKey() + " collides with the external class " +
+              replacement.getValue() + ". Use a non empty " + KEY_OBFUSCATION_PREFIX);
+          collision = true;
+        }
+      }
+    }
+
+    if (collision) {
+      throw new UnableToCompleteException();
+    }
+  }
+
+  /**
+   * Allocates the names of the style classes of all the GssResource types of the compilation in
+   * one pass: the shortest names go to the classes used the most in the selectors of all the
+   * stylesheets, whatever their type. The names restored from a previous renaming map are kept.
+   */
+  private void allocateGlobalNames(ResourceContext context,
+      GlobalMinimalSubstitutionMap substitutionMap) {
+    SortedSet<JClassType> operableTypes = computeOperableTypes(context);
+    Multiset<String> frequencies = countClassSelectors(context, operableTypes, substitutionMap);
+
+    // a shared class has one name for all the types inheriting it
+    final Multiset<String> frequenciesByKey = HashMultiset.create();
+    for (JClassType type : operableTypes) {
+      for (JMethod method : type.getOverridableMethods()) {
+        if (method == getNameMethod || method == getTextMethod || method == ensuredInjectedMethod) {
+          continue;
+        }
+
+        String key = getGlobalKey(type, method);
+        frequenciesByKey.add(key, frequencies.count(type.getQualifiedSourceName() + "." +
+            getClassName(method)));
+      }
+    }
+
+    List<String> keys = Lists.newArrayList(frequenciesByKey.elementSet());
+    Collections.sort(keys, new Comparator<String>() {
+      @Override
+      public int compare(String key1, String key2) {
+        int frequencyDiff = frequenciesByKey.count(key2) - frequenciesByKey.count(key1);
+        return frequencyDiff != 0 ? frequencyDiff : key1.compareTo(key2);
+      }
+    });
+
+    for (String key : keys) {
+      substitutionMap.get(key);
+    }
+  }
+
+  /**
+   * Returns the key of the style class in the global substitution map: the qualified name of the
+   * type followed by the name of the class. The classes of a {@link Shared} interface are keyed by
+   * the interface.
+   */
+  private String getGlobalKey(JClassType cssResource, JMethod method) {
+    JClassType enclosingType = method.getEnclosingType();
+    JClassType owner = enclosingType.getAnnotation(Shared.class) != null ? enclosingType :
+        cssResource;
+    return owner.getQualifiedSourceName() + "." + getClassName(method);
+  }
+
+  /**
+   * Returns the number of times each style class is used in the selectors of the GSS stylesheets
+   * of the given types, in all the bundles of the compilation, by qualified name of its type
+   * followed by its name. The classes of the imported types are counted for the imported type.
+   * The external classes are reserved in the substitution map.
+   * <p>
+   * The stylesheets which can't be found or parsed are skipped: the generation of their own
+   * bundle reports the errors.
+   */
+  private Multiset<String> countClassSelectors(ResourceContext context,
+      Set<JClassType> operableTypes, GlobalMinimalSubstitutionMap substitutionMap) {
+    final Multiset<String> frequencies = HashMultiset.create();
+    TypeOracle typeOracle = context.getGeneratorContext().getTypeOracle();
+    JClassType clientBundleType = typeOracle.findType(ClientBundle.class.getCanonicalName());
+
+    for (JClassType bundleType : clientBundleType.getSubtypes()) {
+      for (JMethod method : bundleType.getOverridableMethods()) {
+        JClassType returnType = method.getReturnType().isInterface();
+        if (returnType == null || !operableTypes.contains(returnType)) {
+          continue;
+        }
+
+        CssTree cssTree = parseForFrequencies(context, method);
+        if (cssTree == null) {
+          continue;
+        }
+
+        for (String external : collectExternalClasses(cssTree)) {
+          substitutionMap.reserve(external);
+        }
+
+        final String typeName = returnType.getQualifiedSourceName();
+        final Map<String, String> importedTypeNamesByPrefix = new HashMap<String, String>();
+
+        Import imp = method.getAnnotation(Import.class);
+        if (imp != null) {
+          for (Class<? extends CssResource> clazz : imp.value()) {
+            JClassType importType = typeOracle.findType(clazz.getName().replace('$', '.'));
+            importedTypeNamesByPrefix.put(getImportPrefix(importType),
+                importType.getQualifiedSourceName());
+          }
+        }
+
+        cssTree.getVisitController().startVisit(new DefaultTreeVisitor() {
+          @Override
+          public boolean enterClassSelector(CssClassSelectorNode classSelector) {
+            String styleClass = classSelector.getRefinerName();
+            String owner = typeName;
+
+            for (Entry<String, String> imported : importedTypeNamesByPrefix.entrySet()) {
+              if (styleClass.startsWith(imported.getKey())) {
+                styleClass = styleClass.substring(imported.getKey().length());
+                owner = imported.getValue();
+                break;
+              }
+            }
+
+            frequencies.add(owner + "." + styleClass);
+            return true;
+          }
+        });
+      }
+    }
+
+    return frequencies;
+  }
+
+  /**
+   * Parses the GSS stylesheets of a method of any bundle, without running any pass. Returns null
+   * if the stylesheets can't be found or parsed, or are legacy CSS files.
+   */
+  private CssTree parseForFrequencies(ResourceContext context, JMethod method) {
+    List<SourceCode> sourceCodes = new ArrayList<SourceCode>();
+
+    try {
+      for (URL stylesheet : ResourceGeneratorUtil.findResources(TreeLogger.NULL, context,
+          method)) {
+        if (!stylesheet.toString().endsWith(".gss")) {
+          return null;
+        }
+        sourceCodes.add(new SourceCode(stylesheet.getFile(),
+            Resources.asByteSource(stylesheet).asCharSource(Charsets.UTF_8).read()));
+      }
+
+      return new GssParser(sourceCodes).parse();
+    } catch (UnableToCompleteException e) {
+      return null;
+    } catch (IOException e) {
+      return null;
+    } catch (GssParserException e) {
+      return null;
+    }
+  }
+
   private boolean isStrictResource(JMethod method) {
     NotStrict notStrict = method.getAnnotation(NotStrict.class);
     return notStrict == null;
@@ -574,9 +1276,15 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
   }
 
   private OptimizationInfo optimize(ExtendedCssTree extendedCssTree, ResourceContext context,
-      boolean simplifyCss, boolean eliminateDeadStyles) throws UnableToCompleteException {
+      JMethod method, boolean simplifyCss, boolean eliminateDeadStyles)
+      throws UnableToCompleteException {
     CssTree cssTree = extendedCssTree.getCssTree();
 
+    // Remove the unused definitions before processing them
+    Set<String> exposedConstants = getExposedConstantNames(method);
+    new EliminateUnusedDefinitions(cssTree.getMutatingVisitController(), exposedConstants,
+        eliminateUnusedKeyframesAndFontFaces).runPass();
+
     // Collect mixin definitions and replace mixins
     CollectMixinDefinitions collectMixinDefinitions = new CollectMixinDefinitions(
         cssTree.getMutatingVisitController(), errorManager);
@@ -608,19 +1316,54 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
         collectConstantDefinitionsPass.getConstantDefinitions(), true, errorManager, false);
     replaceConstantReferences.runPass();
 
-    new ImageSpriteCreator(cssTree.getMutatingVisitController(), context, errorManager).runPass();
+    if (simplifyCss) {
+      // expand each sprite once for all the rulesets using the same image
+      new GroupSpriteDeclarations(cssTree.getMutatingVisitController()).runPass();
+    }
+
+    new ImageSpriteCreator(cssTree.getMutatingVisitController(), context, errorManager,
+        resolveSpriteGeometry, methodIndex).runPass();
 
-    Map<String, GssFunction> gssFunctionMap = new GwtGssFunctionMapProvider(context).get();
     new ResolveCustomFunctionNodes(cssTree.getMutatingVisitController(), errorManager,
         gssFunctionMap, true, allowedNonStandardFunctions).runPass();
 
+    Map<String, String> customProperties = Collections.emptyMap();
+    if (isThemed(method)) {
+      // the values of value() depend on the bundle instance
+      final String bundleName = context.getClientBundleType().getQualifiedSourceName();
+      ReplaceRuntimeValuesWithCustomProperties replaceRuntimeValues =
+          new ReplaceRuntimeValuesWithCustomProperties(cssTree.getVisitController(),
+              new SubstitutionMap() {
+                @Override
+                public String get(String expression) {
+                  return CUSTOM_PROPERTY_PREFIX + obfuscationPrefix +
+                      customPropertyNameBuilder.get(bundleName + ":" + expression);
+                }
+              });
+      replaceRuntimeValues.runPass();
+      customProperties = replaceRuntimeValues.getCustomProperties();
+    }
+
+    if (pruneVendorPrefixes) {
+      Set<String> supportedPrefixes = getSupportedVendorPrefixes(context);
+      if (supportedPrefixes != null) {
+        // Remove the vendor specific nodes the current user agent doesn't understand.
+        new RemoveUnsupportedVendorPrefixes(cssTree.getMutatingVisitController(),
+            Sets.newHashSet(vendorPrefixesByUserAgent.values()), supportedPrefixes).runPass();
+      }
+    }
+
     if (simplifyCss) {
       // Eliminate empty rules.
       new EliminateEmptyRulesetNodes(cssTree.getMutatingVisitController()).runPass();
+      // Compute the calc() expressions that don't depend on the layout.
+      new FoldConstantCalcExpressions(cssTree.getMutatingVisitController()).runPass();
       // Eliminating units for zero values.
       new EliminateUnitsFromZeroNumericValues(cssTree.getMutatingVisitController()).runPass();
       // Optimize color values.
       new ColorValueOptimizer(cssTree.getMutatingVisitController()).runPass();
+      // Merge complete groups of longhand declarations into shorthands.
+      new MergeLonghandDeclarations(cssTree.getMutatingVisitController()).runPass();
       // Compress redundant top-right-bottom-left value lists.
       new AbbreviatePositionalValues(cssTree.getMutatingVisitController()).runPass();
     }
@@ -639,9 +1382,58 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
       // Merge of rules with same styles.
       new MergeAdjacentRulesetNodesWithSameDeclarations(cssTree).runPass();
       new EliminateUselessRulesetNodes(cssTree).runPass();
+      // Merge of @media rules with same query when the cascade allows it.
+      new MergeMediaRuleNodesWithSameQuery(cssTree.getMutatingVisitController()).runPass();
+      // Merge of non adjacent rules with same styles when the cascade allows it.
+      new MergeNonAdjacentRulesetNodesWithSameDeclarations(cssTree).runPass();
+      new EliminateUselessRulesetNodes(cssTree).runPass();
+      if (reorderRulesetsForCompression) {
+        // Group similar rules when the cascade allows it.
+        new ReorderRulesetsForCompression(cssTree.getMutatingVisitController(),
+            compressionWindowSize).runPass();
+      }
+      // Remove the definitions only used by the eliminated rules.
+      new EliminateUnusedDefinitions(cssTree.getMutatingVisitController(), exposedConstants,
+          eliminateUnusedKeyframesAndFontFaces).runPass();
     }
 
-    return new OptimizationInfo(collectConstantDefinitionsPass.getConstantDefinitions());
+    return new OptimizationInfo(collectConstantDefinitionsPass.getConstantDefinitions(),
+        customProperties);
+  }
+
+  /**
+   * Returns the vendor prefixes supported by the user agent of the current permutation or null if
+   * they are unknown.
+   */
+  private Set<String> getSupportedVendorPrefixes(ResourceContext context) {
+    PropertyOracle oracle = context.getGeneratorContext().getPropertyOracle();
+
+    try {
+      String userAgent = oracle.getSelectionProperty(null, USER_AGENT_PROPERTY).getCurrentValue();
+      if (vendorPrefixesByUserAgent.containsKey(userAgent)) {
+        return vendorPrefixesByUserAgent.get(userAgent);
+      }
+    } catch (BadPropertyValueException e) {
+      // no user agent property: don't prune anything
+    }
+    return null;
+  }
+
+  /**
+   * Returns true if the generated code of the current permutation reports to
+   * {@link GssInstrumentation}. When disabled, no instrumentation code is generated at all.
+   */
+  private boolean isInstrumentationEnabled(ResourceContext context) {
+    PropertyOracle oracle = context.getGeneratorContext().getPropertyOracle();
+
+    try {
+      String value = oracle.getSelectionProperty(null, INSTRUMENTATION_PROPERTY).getCurrentValue();
+      context.getRequirements().addPermutationAxis(INSTRUMENTATION_PROPERTY);
+      return "enabled".equals(value);
+    } catch (BadPropertyValueException e) {
+      // the property is not defined: no instrumentation
+      return false;
+    }
   }
 
   private Set<String> getPermutationsConditions(ResourceContext context,
@@ -726,7 +1518,11 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
 
     checkErrors();
 
-    return new ExtendedCssTree(tree, permutationAxes);
+    // The external classes don't depend on the permutation: collect them once and remove the
+    // @external at-rules from the cached tree.
+    Set<String> externalClasses = ImmutableSet.copyOf(collectExternalClasses(tree));
+
+    return new ExtendedCssTree(tree, permutationAxes, externalClasses);
   }
 
   private String convertToGss(String concatenatedCss, TreeLogger logger) throws UnableToCompleteException {
@@ -797,7 +1593,7 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
   }
 
   private boolean writeClassMethod(TreeLogger logger, JMethod userMethod,
-      Map<String, String> substitutionMap, SourceWriter sw) throws
+      Map<String, String> substitutionMap, boolean autoInject, SourceWriter sw) throws
       UnableToCompleteException {
 
     if (!isReturnTypeString(userMethod.getReturnType().isClass())) {
@@ -820,6 +1616,17 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
       logger.log(Type.ERROR, "The following style class [" + name + "] is missing from the source" +
           " CSS file");
       return false;
+    } else if (autoInject) {
+      // the injected field is declared by ensureInjected()
+      sw.print(userMethod.getReadableDeclaration(false, true, true, true, true));
+      sw.println(" {");
+      sw.indent();
+      sw.println("if (!injected) {");
+      sw.indentln("ensureInjected();");
+      sw.println("}");
+      sw.println("return \"" + value + "\";");
+      sw.outdent();
+      sw.println("}");
     } else {
       writeSimpleGetter(userMethod, "\"" + value + "\"", sw);
     }
@@ -891,23 +1698,291 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     return true;
   }
 
+  @Override
+  protected void writeGetText(TreeLogger logger, ResourceContext context, JMethod method,
+      SourceWriter sw) throws UnableToCompleteException {
+    boolean usingSharedCss = methodsUsingSharedCss.contains(method);
+    boolean injectedWithRules = isInjectedWithRules(method);
+    boolean async = isAsync(method);
+    boolean separateOwnCss = hasSeparateOwnCss(method);
+
+    String text;
+    if (!separateOwnCss) {
+      text = getCssExpression(logger, context, method);
+    } else {
+      text = injectedWithRules ?
+          GssStyleInjector.class.getName() + ".join(getOwnRules())" : "getOwnText()";
+
+      if (usingSharedCss) {
+        // the shared rulesets come first, as they are injected before the resource
+        String sharedText = insertRuleInjection ?
+            GssStyleInjector.class.getName() + ".join(" + sharedCssField + ")" : sharedCssField;
+        text = sharedText + " + " + text;
+      }
+
+      if (nonScreenMediaRules.containsKey(method)) {
+        // the extracted rules can move after the other ones without changing the cascade
+        text += " + getNonScreenText()";
+      }
+    }
+
+    sw.println("public String getText() {");
+    sw.indent();
+    if (instrumentationEnabled) {
+      String now = Duration.class.getName() + ".currentTimeMillis()";
+      sw.println("double start = " + now + ";");
+      sw.println("String text = " + text + ";");
+      sw.println(GssInstrumentation.class.getName() + ".reportTextBuilt(getName(), " +
+          "text.length(), " + now + " - start);");
+      sw.println("return text;");
+    } else {
+      sw.println("return " + text + ";");
+    }
+    sw.outdent();
+    sw.println("}");
+
+    if (!separateOwnCss) {
+      return;
+    }
+
+    sw.println(injectedWithRules ? "private String[] getOwnRules() {" :
+        "private String getOwnText() {");
+    sw.indent();
+    if (async) {
+      sw.println("if (loadedCss == null) {");
+      sw.indentln("throw new IllegalStateException(\"The css of the resource \" + getName() + " +
+          "\" is not loaded, call ensureInjected(Callback) first\");");
+      sw.println("}");
+      sw.println("return loadedCss;");
+    } else {
+      sw.println("return " + getOwnCssExpression(logger, context, method) + ";");
+    }
+    sw.outdent();
+    sw.println("}");
+
+    ExtractNonScreenMediaRules nonScreenMedia = nonScreenMediaRules.get(method);
+    if (nonScreenMedia != null) {
+      sw.println("private String getNonScreenText() {");
+      sw.indentln("return " + getCssExpression(nonScreenMedia.getExtractedTree()) + ";");
+      sw.println("}");
+    }
+  }
+
+  /**
+   * Returns true if the css specific to the resource is built by a separate method, called by
+   * getText() and by ensureInjected(). With the instrumentation, the injection doesn't report the
+   * building of the text twice. The deferred non-screen rules are left out of that method.
+   */
+  private boolean hasSeparateOwnCss(JMethod method) {
+    return methodsUsingSharedCss.contains(method) || isInjectedWithRules(method) ||
+        isAsync(method) || instrumentationEnabled || nonScreenMediaRules.containsKey(method);
+  }
+
+  private String getOwnCssExpression(TreeLogger logger, ResourceContext context, JMethod method)
+      throws UnableToCompleteException {
+    return isInjectedWithRules(method) ?
+        getCssRulesExpression(cssTreeMap.get(method).getCssTree()) :
+        getCssExpression(logger, context, method);
+  }
+
+  /**
+   * Writes the ensureInjected(Callback) method of an {@link AsyncGssResource}. The css expression
+   * is only referenced from the split point, so the compiler moves the text of the stylesheet out
+   * of the initial fragment.
+   */
+  private void writeEnsureInjectedAsync(TreeLogger logger, ResourceContext context,
+      JMethod method, SourceWriter sw) throws UnableToCompleteException {
+    String callbackType = Callback.class.getName() + "<Void, Throwable>";
+    String callbackListType = List.class.getName() + "<" + callbackType + ">";
+    String newCallbackList = "new " + ArrayList.class.getName() + "<" + callbackType + ">";
+
+    sw.println("private " + (isInjectedWithRules(method) ? "String[]" : "String") + " loadedCss;");
+    sw.println("private boolean loading;");
+    // callbacks waiting for the split point to be loaded
+    sw.println("private " + callbackListType + " pendingCallbacks = " + newCallbackList + "();");
+    sw.println("public void ensureInjected(final " + callbackType + " callback) {");
+    sw.indent();
+    sw.println("if (loadedCss != null) {");
+    sw.indent();
+    sw.println("ensureInjected();");
+    sw.println("if (callback != null) {");
+    sw.indentln("callback.onSuccess(null);");
+    sw.println("}");
+    sw.println("return;");
+    sw.outdent();
+    sw.println("}");
+    sw.println("if (callback != null) {");
+    sw.indentln("pendingCallbacks.add(callback);");
+    sw.println("}");
+    sw.println("if (loading) {");
+    sw.indentln("return;");
+    sw.println("}");
+    sw.println("loading = true;");
+    sw.println(GWT.class.getName() + ".runAsync(new " + RunAsyncCallback.class.getName() +
+        "() {");
+    sw.indent();
+    sw.println("public void onFailure(Throwable reason) {");
+    sw.indent();
+    sw.println("loading = false;");
+    sw.println(callbackListType + " callbacks = " + newCallbackList + "(pendingCallbacks);");
+    sw.println("pendingCallbacks.clear();");
+    sw.println("if (callbacks.isEmpty()) {");
+    sw.indentln(GWT.class.getName() + ".reportUncaughtException(reason);");
+    sw.println("}");
+    sw.println("for (" + callbackType + " pendingCallback : callbacks) {");
+    sw.indentln("pendingCallback.onFailure(reason);");
+    sw.println("}");
+    sw.outdent();
+    sw.println("}");
+    sw.println("public void onSuccess() {");
+    sw.indent();
+    sw.println("loading = false;");
+    sw.println("loadedCss = " + getOwnCssExpression(logger, context, method) + ";");
+    sw.println("ensureInjected();");
+    sw.println(callbackListType + " callbacks = " + newCallbackList + "(pendingCallbacks);");
+    sw.println("pendingCallbacks.clear();");
+    sw.println("for (" + callbackType + " pendingCallback : callbacks) {");
+    sw.indentln("pendingCallback.onSuccess(null);");
+    sw.println("}");
+    sw.outdent();
+    sw.println("}");
+    sw.outdent();
+    sw.println("});");
+    sw.outdent();
+    sw.println("}");
+  }
+
+  private void writeUpdateCustomProperties(OptimizationInfo optimizationInfo, SourceWriter sw) {
+    sw.println("public void updateCustomProperties() {");
+    sw.indent();
+    for (Entry<String, String> customProperty : optimizationInfo.customProperties.entrySet()) {
+      sw.println(GssStyleInjector.class.getName() + ".setCustomProperty(\"" +
+          customProperty.getKey() + "\", \"\" + (" + customProperty.getValue() + "));");
+    }
+    sw.outdent();
+    sw.println("}");
+  }
+
+  private boolean isThemed(JMethod method) {
+    return themedGssResourceInterface != null &&
+        themedGssResourceInterface.isAssignableFrom(method.getReturnType().isInterface());
+  }
+
+  private boolean isAsync(JMethod method) {
+    return asyncGssResourceInterface != null &&
+        asyncGssResourceInterface.isAssignableFrom(method.getReturnType().isInterface());
+  }
+
+  /**
+   * Writes an ensureInjected() method registering the css with the {@link GssStyleInjector}, that
+   * batches the injections of an event loop and skips the css already injected. The shared
+   * rulesets, if any, are injected once for the bundle before the css specific to the resource.
+   */
+  private void writeEnsureInjected(JMethod method, SourceWriter sw) {
+    String injector = GssStyleInjector.class.getName();
+
+    sw.println("private boolean injected;");
+    sw.println("public boolean ensureInjected() {");
+    sw.indent();
+    if (isAsync(method)) {
+      // the css is injected once loaded
+      sw.println("if (loadedCss == null) {");
+      sw.indent();
+      sw.println("if (loading) {");
+      sw.indentln("return false;");
+      sw.println("}");
+      sw.println("ensureInjected((" + Callback.class.getName() + "<Void, Throwable>) null);");
+      sw.println("return true;");
+      sw.outdent();
+      sw.println("}");
+    }
+    sw.println("if (!injected) {");
+    sw.indent();
+    sw.println("injected = true;");
+    if (isThemed(method)) {
+      sw.println("updateCustomProperties();");
+    }
+
+    if (methodsUsingSharedCss.contains(method)) {
+      sw.println("if (!" + sharedCssInjectedField + ") {");
+      sw.indentln(sharedCssInjectedField + " = true;");
+      sw.indentln(injector + (insertRuleInjection ? ".insertRules(" : ".inject(") +
+          sharedCssField + ");");
+      sw.println("}");
+    }
+
+    boolean injectedWithRules = isInjectedWithRules(method);
+    String ownCss = injectedWithRules ? "getOwnRules()" :
+        hasSeparateOwnCss(method) ? "getOwnText()" : "getText()";
+    String inject = injector + (injectedWithRules ? ".insertRules(" : ".inject(");
+
+    if (instrumentationEnabled) {
+      String now = Duration.class.getName() + ".currentTimeMillis()";
+      sw.println("double buildStart = " + now + ";");
+      sw.println((injectedWithRules ? "String[]" : "String") + " css = " + ownCss + ";");
+      sw.println("double injectStart = " + now + ";");
+      sw.println(inject + "css);");
+      sw.println(GssInstrumentation.class.getName() + ".reportInjected(getName(), " +
+          (injectedWithRules ? injector + ".join(css)" : "css") + ".length(), " +
+          "injectStart - buildStart, " + now + " - injectStart);");
+    } else {
+      sw.println(inject + ownCss + ");");
+    }
+
+    ExtractNonScreenMediaRules nonScreenMedia = nonScreenMediaRules.get(method);
+    if (nonScreenMedia != null) {
+      sw.println(injector + ".injectDeferred(getNonScreenText(), \"" +
+          Generator.escape(Joiner.on(", ").join(nonScreenMedia.getMediaQueries())) + "\");");
+    }
+
+    sw.println("return true;");
+    sw.outdent();
+    sw.println("}");
+    sw.println("return false;");
+    sw.outdent();
+    sw.println("}");
+  }
+
+  /**
+   * Returns true if the css of the resource is injected rule by rule. A tree containing runtime
+   * conditional blocks at the top level cannot be split in rules at compile time and is injected
+   * as text.
+   */
+  private boolean isInjectedWithRules(JMethod method) {
+    if (!insertRuleInjection) {
+      return false;
+    }
+
+    for (CssNode child : cssTreeMap.get(method).getCssTree().getRoot().getBody().childIterable()) {
+      if (child instanceof CssConditionalBlockNode) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private void writeMethods(TreeLogger logger, ResourceContext context, JMethod method,
       SourceWriter sw, OptimizationInfo optimizationInfo, Map<String, String> substitutionMap)
       throws UnableToCompleteException {
     JClassType gssResource = method.getReturnType().isInterface();
 
     boolean success = true;
+    boolean autoInject = isAutoInjected(gssResource);
 
     for (JMethod toImplement : gssResource.getOverridableMethods()) {
       if (toImplement == getTextMethod) {
         writeGetText(logger, context, method, sw);
       } else if (toImplement == ensuredInjectedMethod) {
-        writeEnsureInjected(sw);
+        writeEnsureInjected(method, sw);
       } else if (toImplement == getNameMethod) {
         writeGetName(method, sw);
+      } else if (toImplement.getEnclosingType() == themedGssResourceInterface) {
+        writeUpdateCustomProperties(optimizationInfo, sw);
+      } else if (toImplement.getEnclosingType() == asyncGssResourceInterface) {
+        writeEnsureInjectedAsync(logger, context, method, sw);
       } else {
         success &= writeUserMethod(logger, toImplement, sw, optimizationInfo,
-            substitutionMap);
+            substitutionMap, autoInject);
       }
     }
 
@@ -916,13 +1991,22 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     }
   }
 
+  private boolean isAutoInjected(JClassType gssResource) {
+    for (JClassType type : gssResource.getFlattenedSupertypeHierarchy()) {
+      if (type.isAnnotationPresent(AutoInject.class)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private boolean writeUserMethod(TreeLogger logger, JMethod userMethod,
-      SourceWriter sw, OptimizationInfo optimizationInfo, Map<String, String> substitutionMap)
-      throws UnableToCompleteException {
+      SourceWriter sw, OptimizationInfo optimizationInfo, Map<String, String> substitutionMap,
+      boolean autoInject) throws UnableToCompleteException {
     String className = getClassName(userMethod);
     // method to access style class ?
     if (substitutionMap.containsKey(className)) {
-      return writeClassMethod(logger, userMethod, substitutionMap, sw);
+      return writeClassMethod(logger, userMethod, substitutionMap, autoInject, sw);
     }
 
     // method to access constant value ?
@@ -947,6 +2031,22 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     return false;
   }
 
+  /**
+   * Returns the names of the constants that can be exposed by the accessors of the resource.
+   */
+  private Set<String> getExposedConstantNames(JMethod method) {
+    Set<String> names = new HashSet<String>();
+
+    for (JMethod toImplement : method.getReturnType().isInterface().getOverridableMethods()) {
+      if (toImplement != getTextMethod && toImplement != ensuredInjectedMethod &&
+          toImplement != getNameMethod) {
+        names.add(toImplement.getName());
+        names.add(toUpperCase(toImplement.getName()));
+      }
+    }
+    return names;
+  }
+
   /**
    * Transform a camel case string to upper case. Each word is separated by a '_'
    *
@@ -957,13 +2057,42 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     return CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, camelCase);
   }
 
+  /**
+   * Returns the merged replacement map of the stylesheet, shared by all the stylesheets having the
+   * same type, imports and external classes, e.g. the same stylesheet in the other permutations.
+   */
+  private PrefixedReplacementMap getPrefixedReplacementMap(JMethod method,
+      Map<String, Map<String, String>> replacementsWithPrefix, Set<String> externalClasses) {
+    StringBuilder key = new StringBuilder(method.getReturnType().getQualifiedSourceName());
+
+    Import imp = method.getAnnotation(Import.class);
+    if (imp != null) {
+      for (Class<? extends CssResource> clazz : imp.value()) {
+        key.append(',').append(clazz.getName());
+      }
+    }
+
+    key.append('|');
+    Joiner.on(',').appendTo(key, new TreeSet<String>(externalClasses));
+
+    String cacheKey = key.toString();
+    PrefixedReplacementMap replacementMap = prefixedReplacementMaps.get(cacheKey);
+
+    if (replacementMap == null) {
+      replacementMap = new PrefixedReplacementMap(replacementsWithPrefix, externalClasses);
+      prefixedReplacementMaps.put(cacheKey, replacementMap);
+    }
+
+    return replacementMap;
+  }
+
   private Map<String, Map<String, String>> computeReplacements(JMethod method, TreeLogger logger,
       ResourceContext context) throws UnableToCompleteException {
     Map<String, Map<String, String>> replacementsWithPrefix = new HashMap<String, Map<String,
         String>>();
 
-    replacementsWithPrefix
-        .put("", computeReplacementsForType(method.getReturnType().isInterface()));
+    replacementsWithPrefix.put("", computeReplacementsForType(
+        method.getReturnType().isInterface()));
 
     // Process the Import annotation if any
     Import imp = method.getAnnotation(Import.class);
@@ -995,6 +2124,11 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
     return replacementsWithPrefix;
   }
 
+  /**
+   * Computes the obfuscated names of the style classes of the type. With the global obfuscation
+   * namespace, the names have been allocated by {@link #allocateGlobalNames} for all the types of
+   * the compilation.
+   */
   private Map<String, String> computeReplacementsForType(JClassType cssResource) {
     Map<String, String> replacements = replacementsByClassAndMethod.get(cssResource);
 
@@ -1002,12 +2136,16 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
       replacements = new HashMap<String, String>();
       replacementsByClassAndMethod.put(cssResource, replacements);
 
-      String resourcePrefix = resourcePrefixBuilder.get(cssResource.getQualifiedSourceName());
+      SubstitutionMap substitutionMap = null;
+
+      if (!globalObfuscationNamespace) {
+        String resourcePrefix = resourcePrefixBuilder.get(cssResource.getQualifiedSourceName());
 
-      // This substitution map will prefix each renamed class with the resource prefix and use a
-      // MinimalSubstitutionMap for computing the obfuscated name.
-      SubstitutionMap prefixingSubstitutionMap = new PrefixingSubstitutionMap(
-          new MinimalSubstitutionMap(), obfuscationPrefix + resourcePrefix + "-");
+        // This substitution map will prefix each renamed class with the resource prefix and use a
+        // MinimalSubstitutionMap for computing the obfuscated name.
+        substitutionMap = new PrefixingSubstitutionMap(
+            new MinimalSubstitutionMap(), obfuscationPrefix + resourcePrefix + "-");
+      }
 
       for (JMethod method : cssResource.getOverridableMethods()) {
         if (method == getNameMethod || method == getTextMethod || method == ensuredInjectedMethod) {
@@ -1019,7 +2157,11 @@ public class GssResourceGenerator extends AbstractCssResourceGenerator implement
         if (replacementsForSharedMethods.containsKey(method)) {
           replacements.put(styleClass, replacementsForSharedMethods.get(method));
         } else {
-          String obfuscatedClassName = prefixingSubstitutionMap.get(styleClass);
+          // The keys of the global substitution map have to be unique across the types. The
+          // obfuscation prefix is already added by the global substitution map.
+          String obfuscatedClassName = globalObfuscationNamespace ?
+              globalSubstitutionMap.get(getGlobalKey(cssResource, method)) :
+              substitutionMap.get(styleClass);
           String replacement = obfuscationStyle.getPrettyName(styleClass, cssResource,
               obfuscatedClassName);
 
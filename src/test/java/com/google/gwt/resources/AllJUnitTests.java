@@ -17,9 +17,21 @@ package com.google.gwt.resources;
 
 import com.google.gwt.resources.converter.DefCollectorVisitorTest;
 import com.google.gwt.resources.converter.ElseNodeCreatorTest;
+import com.google.gwt.resources.gss.ClientBundleMethodIndexTest;
+import com.google.gwt.resources.gss.EliminateUnusedDefinitionsTest;
 import com.google.gwt.resources.gss.ExternalClassesCollectorTest;
-
+import com.google.gwt.resources.gss.ExtractNonScreenMediaRulesTest;
+import com.google.gwt.resources.gss.FoldConstantCalcExpressionsTest;
+import com.google.gwt.resources.gss.GlobalMinimalSubstitutionMapTest;
+import com.google.gwt.resources.gss.GroupSpriteDeclarationsTest;
+import com.google.gwt.resources.gss.MergeLonghandDeclarationsTest;
+import com.google.gwt.resources.gss.MergeMediaRuleNodesWithSameQueryTest;
+import com.google.gwt.resources.gss.MergeNonAdjacentRulesetNodesWithSameDeclarationsTest;
+import com.google.gwt.resources.gss.RemoveUnsupportedVendorPrefixesTest;
 import com.google.gwt.resources.gss.RenamingSubstitutionMapTest;
+import com.google.gwt.resources.gss.ReorderRulesetsForCompressionTest;
+import com.google.gwt.resources.gss.ReplaceRuntimeValuesWithCustomPropertiesTest;
+import com.google.gwt.resources.gss.ResourceUrlFunctionTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
@@ -28,7 +40,20 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({
     DefCollectorVisitorTest.class,
     ElseNodeCreatorTest.class,
+    ClientBundleMethodIndexTest.class,
+    EliminateUnusedDefinitionsTest.class,
     ExternalClassesCollectorTest.class,
-    RenamingSubstitutionMapTest.class})
+    ExtractNonScreenMediaRulesTest.class,
+    FoldConstantCalcExpressionsTest.class,
+    GlobalMinimalSubstitutionMapTest.class,
+    GroupSpriteDeclarationsTest.class,
+    MergeLonghandDeclarationsTest.class,
+    MergeMediaRuleNodesWithSameQueryTest.class,
+    MergeNonAdjacentRulesetNodesWithSameDeclarationsTest.class,
+    RemoveUnsupportedVendorPrefixesTest.class,
+    RenamingSubstitutionMapTest.class,
+    ReorderRulesetsForCompressionTest.class,
+    ReplaceRuntimeValuesWithCustomPropertiesTest.class,
+    ResourceUrlFunctionTest.class})
 public class AllJUnitTests {
 }
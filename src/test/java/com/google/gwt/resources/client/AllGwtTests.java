@@ -32,6 +32,18 @@ public class AllGwtTests extends GWTTestSuite {
     suite.addTestSuite(StableShortTypeObfuscationStyleTest.class);
     suite.addTestSuite(StableNoTypeObfuscationStyleTest.class);
     suite.addTestSuite(StableObfuscationStyleTest.class);
+    suite.addTestSuite(GlobalObfuscationNamespaceTest.class);
+    suite.addTestSuite(RenamingMapTest.class);
+    suite.addTestSuite(SharedRulesetsTest.class);
+    suite.addTestSuite(GssStyleInjectorTest.class);
+    suite.addTestSuite(InsertRuleTest.class);
+    suite.addTestSuite(AutoInjectTest.class);
+    suite.addTestSuite(AsyncGssResourceTest.class);
+    suite.addTestSuite(ThemedGssResourceTest.class);
+    suite.addTestSuite(GssInstrumentationTest.class);
+    suite.addTestSuite(DeferNonScreenMediaTest.class);
+    suite.addTestSuite(ResolveSpriteGeometryTest.class);
+    suite.addTestSuite(DataUrlInliningTest.class);
     return suite;
   }
 }
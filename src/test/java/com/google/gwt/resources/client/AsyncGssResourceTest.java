@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.core.shared.GWT;
+import com.google.gwt.junit.client.GWTTestCase;
+import com.google.gwt.resources.client.AsyncResource.Settings;
+
+public class AsyncGssResourceTest extends GWTTestCase {
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.GssResourceTest";
+  }
+
+  public void testEnsureInjected_cssLoadedAsynchronously() {
+    final Settings settings = GWT.<AsyncResource>create(AsyncResource.class).settings();
+
+    // class names are available before the css is loaded
+    final String className = settings.settings();
+    assertNotNull(className);
+
+    try {
+      settings.getText();
+      fail("The css should not be loaded yet");
+    } catch (IllegalStateException expected) {
+    }
+
+    delayTestFinish(5000);
+    final int[] successes = new int[1];
+    Callback<Void, Throwable> callback = new Callback<Void, Throwable>() {
+      @Override
+      public void onFailure(Throwable reason) {
+        fail(reason.getMessage());
+      }
+
+      @Override
+      public void onSuccess(Void result) {
+        assertEquals("." + className + "{padding:10px}", settings.getText());
+        assertFalse(settings.ensureInjected());
+
+        // both callbacks are called once the css is loaded
+        if (++successes[0] == 2) {
+          finishTest();
+        }
+      }
+    };
+
+    settings.ensureInjected(callback);
+    // called before the css is loaded, the callback waits for the same load
+    settings.ensureInjected(callback);
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.shared.GWT;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.NodeList;
+import com.google.gwt.dom.client.StyleElement;
+import com.google.gwt.junit.client.GWTTestCase;
+import com.google.gwt.resources.client.AutoInjectResource.ConfirmDialog;
+import com.google.gwt.resources.client.AutoInjectResource.Dialog;
+
+public class AutoInjectTest extends GWTTestCase {
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.GssResourceTest";
+  }
+
+  public void testClassNameRequested_cssInjectedOnce() {
+    Dialog dialog = GWT.<AutoInjectResource>create(AutoInjectResource.class).dialog();
+    int styleCount = getStyleElements().getLength();
+
+    String text = dialog.getText();
+    GssStyleInjector.flush();
+    assertEquals(styleCount, getStyleElements().getLength());
+
+    dialog.dialog();
+    dialog.dialog();
+    GssStyleInjector.flush();
+
+    NodeList<StyleElement> styles = getStyleElements();
+    assertEquals(styleCount + 1, styles.getLength());
+    assertEquals(text, styles.getItem(styles.getLength() - 1).getInnerText());
+    assertFalse(dialog.ensureInjected());
+  }
+
+  public void testSubInterface_cssInjected() {
+    ConfirmDialog confirmDialog =
+        GWT.<AutoInjectResource>create(AutoInjectResource.class).confirmDialog();
+
+    confirmDialog.confirm();
+
+    assertFalse(confirmDialog.ensureInjected());
+  }
+
+  private NodeList<StyleElement> getStyleElements() {
+    return Document.get().getElementsByTagName(StyleElement.TAG).cast();
+  }
+}
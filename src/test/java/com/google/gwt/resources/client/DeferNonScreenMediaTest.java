@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.core.shared.GWT;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.NodeList;
+import com.google.gwt.dom.client.StyleElement;
+import com.google.gwt.junit.client.GWTTestCase;
+import com.google.gwt.resources.client.PrintableResource.Printable;
+
+public class DeferNonScreenMediaTest extends GWTTestCase {
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.DeferNonScreenMedia";
+  }
+
+  public void testPrintRulesInjectedApart() {
+    final Printable printable =
+        GWT.<PrintableResource>create(PrintableResource.class).printable();
+
+    // getText() still returns the print rules, after the other ones
+    assertEquals("." + printable.printable() + "{color:blue}@media print{." +
+        printable.printable() + "{color:black}}", printable.getText());
+
+    printable.ensureInjected();
+    delayTestFinish(5000);
+
+    // runs after the deferred injection of the print rules
+    Scheduler.get().scheduleDeferred(new ScheduledCommand() {
+      @Override
+      public void execute() {
+        NodeList<StyleElement> styles =
+            Document.get().getElementsByTagName(StyleElement.TAG).cast();
+        StyleElement screenStyle = styles.getItem(styles.getLength() - 2);
+        StyleElement printStyle = styles.getItem(styles.getLength() - 1);
+
+        assertEquals("." + printable.printable() + "{color:blue}", screenStyle.getInnerText());
+
+        assertEquals("print", printStyle.getMedia());
+        assertEquals("@media print{." + printable.printable() + "{color:black}}",
+            printStyle.getInnerText());
+        finishTest();
+      }
+    });
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.shared.GWT;
+import com.google.gwt.resources.client.TestResources.ClassNameAnnotation;
+
+public class GlobalObfuscationNamespaceTest extends RenamingClassNameTest {
+  private static final String GLOBAL_OBFUSCATION_PATTERN = "[a-zA-Z][a-zA-Z0-9]*";
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.GlobalNamespace";
+  }
+
+  public void testClassesRenaming() {
+    ClassNameAnnotation classNameAnnotation = res().classNameAnnotation();
+    String renamedClass = classNameAnnotation.renamedClass();
+    String nonRenamedClass = classNameAnnotation.nonRenamedClass();
+
+    // no prefix specific to the type
+    assertTrue(renamedClass.matches(GLOBAL_OBFUSCATION_PATTERN));
+    assertTrue(nonRenamedClass.matches(GLOBAL_OBFUSCATION_PATTERN));
+    assertFalse(renamedClass.equals(nonRenamedClass));
+  }
+
+  public void testNamesUniqueAcrossTypes() {
+    ScopeResource res = GWT.create(ScopeResource.class);
+
+    assertFalse(res.scopeA().foo().equals(res.scopeB().foo()));
+    assertFalse(res.scopeB().foo().equals(res.scopeC().foo()));
+    assertFalse(res.scopeA().foo().equals(res.scopeC().foo()));
+  }
+
+  public void testMostUsedClassGetsShortestName() {
+    FrequencyResource res = GWT.create(FrequencyResource.class);
+
+    // the class used the most in the selectors of all the stylesheets of the compilation gets
+    // the first name of the namespace, whatever the order in which the bundles are generated. The
+    // test module has no obfuscation prefix.
+    assertEquals("a", res.mostUsed().mostUsed());
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.shared.GWT;
+import com.google.gwt.junit.client.GWTTestCase;
+import com.google.gwt.resources.client.GssInstrumentation.Listener;
+import com.google.gwt.resources.client.SharedRulesetsResource.Panel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GssInstrumentationTest extends GWTTestCase {
+  private static class RecordingListener implements Listener {
+    private final List<String> reports = new ArrayList<String>();
+
+    @Override
+    public void onTextBuilt(String resourceName, int textLength, double buildTime) {
+      assertTrue(buildTime >= 0);
+      reports.add("built " + resourceName + " " + textLength);
+    }
+
+    @Override
+    public void onInjected(String resourceName, int textLength, double buildTime,
+        double injectTime) {
+      assertTrue(buildTime >= 0);
+      assertTrue(injectTime >= 0);
+      reports.add("injected " + resourceName + " " + textLength);
+    }
+  }
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.Instrumentation";
+  }
+
+  @Override
+  protected void gwtTearDown() throws Exception {
+    GssInstrumentation.setListener(null);
+  }
+
+  public void testGetTextAndEnsureInjected_reported() {
+    RecordingListener listener = new RecordingListener();
+    GssInstrumentation.setListener(listener);
+    Panel panel = GWT.<SharedRulesetsResource>create(SharedRulesetsResource.class).panel();
+
+    int length = panel.getText().length();
+    assertTrue(panel.ensureInjected());
+    assertFalse(panel.ensureInjected());
+
+    assertEquals(2, listener.reports.size());
+    assertEquals("built panel " + length, listener.reports.get(0));
+    assertTrue(listener.reports.get(1).startsWith("injected panel "));
+  }
+}
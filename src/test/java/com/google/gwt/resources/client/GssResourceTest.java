@@ -18,10 +18,12 @@ package com.google.gwt.resources.client;
 
 import com.google.gwt.resources.client.TestResources.ClassNameAnnotation;
 import com.google.gwt.resources.client.TestResources.EmptyClass;
+import com.google.gwt.resources.client.TestResources.HighDensitySprite;
 import com.google.gwt.resources.client.TestResources.NonStandardAtRules;
 import com.google.gwt.resources.client.TestResources.NonStandardFunctions;
 import com.google.gwt.resources.client.TestResources.RuntimeConditional;
 import com.google.gwt.resources.client.TestResources.SomeGssResource;
+import com.google.gwt.resources.client.TestResources.SpriteGroup;
 import com.google.gwt.resources.client.TestResources.WithConstant;
 
 public class GssResourceTest extends RenamingClassNameTest {
@@ -68,6 +70,44 @@ public class GssResourceTest extends RenamingClassNameTest {
     assertTrue(text.contains(expected));
   }
 
+  public void testSpriteGroup() {
+    SpriteGroup spriteGroup = res().spriteGroup();
+    String text = spriteGroup.getText();
+
+    // the sprite is expanded once for both classes
+    assertTrue(text.startsWith("." + spriteGroup.firstIcon() + ",." + spriteGroup.secondIcon() +
+        "{height:"));
+    assertEquals(text.indexOf("overflow:hidden"), text.lastIndexOf("overflow:hidden"));
+    assertTrue(text.endsWith("." + spriteGroup.secondIcon() + "{margin:2px}"));
+  }
+
+  public void testHighDensitySprite() {
+    HighDensitySprite highDensitySprite = res().highDensitySprite();
+    String text = highDensitySprite.getText();
+
+    String expected = "@media (-webkit-min-device-pixel-ratio:2),(min-resolution:192dpi){." +
+        highDensitySprite.icon() + "{background-image:url(" +
+        res().someImageResource2x().getSafeUri().asString() + ");background-size:64px 64px}}";
+    assertTrue(text.endsWith(expected));
+  }
+
+  public void testHighDensitySpriteInsideMediaRule() {
+    HighDensitySprite highDensitySprite = res().highDensitySprite();
+    String text = highDensitySprite.getText();
+
+    // only the top level ruleset gets a high density media rule
+    String highDensityQuery = "@media (-webkit-min-device-pixel-ratio:2)";
+    assertEquals(text.indexOf(highDensityQuery), text.lastIndexOf(highDensityQuery));
+    assertTrue(text.startsWith("@media print{." + highDensitySprite.printIcon() + "{"));
+  }
+
+  public void testHighDensitySpriteWithInlinedImage() {
+    String text = res().highDensitySprite().getText();
+
+    String override = "background-image:url(" + res().someImageResource().getSafeUri().asString();
+    assertFalse(text.contains(override));
+  }
+
   public void testResourceUrl() {
     String text = res().resourceUrl().getText();
 
@@ -78,6 +118,13 @@ public class GssResourceTest extends RenamingClassNameTest {
     assertTrue(text.contains(expected));
   }
 
+  public void testInlinedResourceUrl() {
+    String text = res().inlinedResourceUrl().getText();
+
+    String expected = "{background-image:url(" + res().svgIcon().getSafeUri().asString() + ")}";
+    assertTrue(text.contains(expected));
+  }
+
   /**
    * Test that empty class definitions doesn't throw an exception (issue #25) and that they are
    * removed from the resulting css.
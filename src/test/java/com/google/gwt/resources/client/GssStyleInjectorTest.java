@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.NodeList;
+import com.google.gwt.dom.client.StyleElement;
+import com.google.gwt.junit.client.GWTTestCase;
+
+public class GssStyleInjectorTest extends GWTTestCase {
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.GssResourceTest";
+  }
+
+  public void testInject_sameText_injectedOnce() {
+    int styleCount = getStyleElements().getLength();
+
+    assertTrue(GssStyleInjector.inject(".duplicate{color:red}"));
+    assertFalse(GssStyleInjector.inject(".duplicate{color:red}"));
+    assertTrue(GssStyleInjector.inject(".other{color:blue}"));
+    GssStyleInjector.flush();
+
+    // one insertion for all the texts of the event loop
+    NodeList<StyleElement> styles = getStyleElements();
+    assertEquals(styleCount + 1, styles.getLength());
+    assertEquals(".duplicate{color:red}.other{color:blue}",
+        styles.getItem(styles.getLength() - 1).getInnerText());
+  }
+
+  private NodeList<StyleElement> getStyleElements() {
+    return Document.get().getElementsByTagName(StyleElement.TAG).cast();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.shared.GWT;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.NodeList;
+import com.google.gwt.dom.client.StyleElement;
+import com.google.gwt.dom.client.StyleInjector;
+import com.google.gwt.junit.client.GWTTestCase;
+
+public class InsertRuleTest extends GWTTestCase {
+  private static final String SHARED_CSS = "body{margin:0}a{color:blue}";
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.InsertRule";
+  }
+
+  public void testGetText() {
+    SharedRulesetsResource res = GWT.create(SharedRulesetsResource.class);
+
+    String panelText = res.panel().getText();
+    String buttonText = res.button().getText();
+
+    assertTrue(panelText.startsWith(SHARED_CSS));
+    assertTrue(panelText.endsWith("{padding:5px}"));
+    assertTrue(buttonText.startsWith(SHARED_CSS));
+    assertTrue(buttonText.endsWith("{border:none;color:red}"));
+  }
+
+  public void testEnsureInjected_rulesInsertedInOneStylesheet() {
+    SharedRulesetsResource res = GWT.create(SharedRulesetsResource.class);
+    int styleElements = countStyleElements();
+
+    assertTrue(res.panel().ensureInjected());
+    assertTrue(res.button().ensureInjected());
+    assertFalse(res.panel().ensureInjected());
+    GssStyleInjector.flush();
+
+    assertEquals(styleElements + 1, countStyleElements());
+    // two shared rules, one rule for the panel and one for the button
+    assertEquals(4, countRulesOfLastStylesheet());
+  }
+
+  public void testInsertRules_afterAnotherStylesheet_newSharedStylesheet() {
+    GssStyleInjector.insertRules(new String[] {".first{color:red}"});
+    GssStyleInjector.flush();
+    StyleElement other = StyleInjector.injectStylesheetAtEnd(".other{color:blue}");
+    int styleElements = countStyleElements();
+
+    GssStyleInjector.insertRules(new String[] {".second{color:green}"});
+    GssStyleInjector.flush();
+
+    // the rules are inserted in a new stylesheet following the other stylesheet
+    assertEquals(styleElements + 1, countStyleElements());
+    StyleElement shared = getLastStyleElement();
+    assertNotSame(other, shared);
+
+    GssStyleInjector.insertRules(new String[] {".third{color:black}"});
+    GssStyleInjector.flush();
+
+    // the shared stylesheet is still the last one, it is reused
+    assertEquals(styleElements + 1, countStyleElements());
+    assertSame(shared, getLastStyleElement());
+  }
+
+  public void testInject_textAfterRules_keepsCallOrder() {
+    GssStyleInjector.insertRules(new String[] {".ruleMode{color:red}"});
+    GssStyleInjector.inject(".textMode{color:blue}");
+    GssStyleInjector.flush();
+
+    // the text is injected after the stylesheet receiving the rules
+    assertEquals(".textMode{color:blue}", getLastStyleElement().getInnerText());
+  }
+
+  private StyleElement getLastStyleElement() {
+    NodeList<Element> styles = Document.get().getElementsByTagName("style");
+    return styles.getItem(styles.getLength() - 1).cast();
+  }
+
+  private int countStyleElements() {
+    return Document.get().getElementsByTagName("style").getLength();
+  }
+
+  private native int countRulesOfLastStylesheet() /*-{
+    var styles = $doc.getElementsByTagName("style");
+    var sheet = styles[styles.length - 1].sheet;
+    return sheet.cssRules.length;
+  }-*/;
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+/**
+ * Runs the tests of {@link GssResourceTest} with the geometry of the sprites resolved when the css
+ * is generated.
+ */
+public class ResolveSpriteGeometryTest extends GssResourceTest {
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.ResolveSpriteGeometry";
+  }
+
+  @Override
+  public void testSprite() {
+    String text = res().sprite().getText();
+
+    // the image is not part of a composite image when data urls are supported
+    String expected = "{height:64px;width:64px;overflow:hidden;background:url(" + res()
+        .someImageResource().getSafeUri().asString() + ") 0 0  no-repeat}";
+
+    assertTrue(text.contains(expected));
+  }
+}
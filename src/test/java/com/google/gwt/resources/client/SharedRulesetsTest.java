@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.core.shared.GWT;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.NodeList;
+import com.google.gwt.dom.client.StyleElement;
+import com.google.gwt.junit.client.GWTTestCase;
+
+public class SharedRulesetsTest extends GWTTestCase {
+  private static final String SHARED_CSS = "body{margin:0}a{color:blue}";
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.SharedRulesets";
+  }
+
+  public void testGetTextContainsSharedRulesets() {
+    SharedRulesetsResource res = GWT.create(SharedRulesetsResource.class);
+
+    String panelText = res.panel().getText();
+    String buttonText = res.button().getText();
+
+    assertTrue(panelText.startsWith(SHARED_CSS));
+    assertTrue(panelText.endsWith("{padding:5px}"));
+    assertTrue(buttonText.startsWith(SHARED_CSS));
+    assertTrue(buttonText.endsWith("{border:none;color:red}"));
+  }
+
+  public void testEnsureInjected() {
+    final SharedRulesetsResource res = GWT.create(SharedRulesetsResource.class);
+
+    assertTrue(res.panel().ensureInjected());
+    assertTrue(res.button().ensureInjected());
+    assertFalse(res.panel().ensureInjected());
+    delayTestFinish(5000);
+
+    // runs after the injection of the batched css
+    Scheduler.get().scheduleDeferred(new ScheduledCommand() {
+      @Override
+      public void execute() {
+        String injectedCss = getInjectedCss();
+        String panelOwnCss = res.panel().getText().substring(SHARED_CSS.length());
+        String buttonOwnCss = res.button().getText().substring(SHARED_CSS.length());
+
+        // the shared rulesets are injected once, before the css of the first resource
+        assertEquals(injectedCss.indexOf(SHARED_CSS), injectedCss.lastIndexOf(SHARED_CSS));
+        assertTrue(injectedCss.contains(SHARED_CSS + panelOwnCss));
+
+        // the css injected for the second resource doesn't repeat them
+        String afterPanel =
+            injectedCss.substring(injectedCss.indexOf(panelOwnCss) + panelOwnCss.length());
+        assertTrue(afterPanel.startsWith(buttonOwnCss));
+        assertFalse(afterPanel.contains(SHARED_CSS));
+        finishTest();
+      }
+    });
+  }
+
+  private String getInjectedCss() {
+    NodeList<StyleElement> styles = Document.get().getElementsByTagName(StyleElement.TAG).cast();
+
+    StringBuilder css = new StringBuilder();
+    for (int i = 0; i < styles.getLength(); i++) {
+      css.append(styles.getItem(i).getInnerText());
+    }
+    return css.toString();
+  }
+}
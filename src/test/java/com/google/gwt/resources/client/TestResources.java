@@ -18,6 +18,8 @@ package com.google.gwt.resources.client;
 
 import com.google.gwt.resources.client.CssResource.Import;
 import com.google.gwt.resources.client.CssResource.NotStrict;
+import com.google.gwt.resources.client.DataResource.MimeType;
+import com.google.gwt.resources.client.ImageResource.ImageOptions;
 import com.google.gwt.resources.client.ScopeResource.SharedParent;
 
 public interface TestResources extends ClientBundle {
@@ -40,6 +42,22 @@ public interface TestResources extends ClientBundle {
     String someImageResource();
   }
 
+  interface SpriteGroup extends GssResource {
+    String firstIcon();
+
+    String label();
+
+    String secondIcon();
+  }
+
+  interface HighDensitySprite extends GssResource {
+    String icon();
+
+    String printIcon();
+
+    String inlinedHighDensityIcon();
+  }
+
   interface ExternalClasses extends GssResource {
     String obfuscatedClass();
 
@@ -109,8 +127,14 @@ public interface TestResources extends ClientBundle {
 
   SomeGssResource resourceUrl();
 
+  SomeGssResource inlinedResourceUrl();
+
   SpriteGssResource sprite();
 
+  SpriteGroup spriteGroup();
+
+  HighDensitySprite highDensitySprite();
+
   ExternalClasses externalClasses();
 
   EmptyClass emptyClass();
@@ -119,9 +143,17 @@ public interface TestResources extends ClientBundle {
 
   ImageResource someImageResource();
 
+  @Source("someImageResource2x.png")
+  @ImageOptions(preventInlining = true)
+  ImageResource someImageResource2x();
+
   @Source("bananaguitar.ani")
   DataResource someDataResource();
 
+  @Source("icon.svg")
+  @MimeType("image/svg+xml")
+  DataResource svgIcon();
+
   @Import({ImportResource.ImportWithPrefixCss.class, ImportResource.ImportCss.class})
   TestImportCss testImportCss();
 
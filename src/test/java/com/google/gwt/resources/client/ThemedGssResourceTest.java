@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.client;
+
+import com.google.gwt.core.shared.GWT;
+import com.google.gwt.junit.client.GWTTestCase;
+import com.google.gwt.resources.client.ThemeResource.Colors;
+import com.google.gwt.resources.client.ThemeResource.Theme;
+
+public class ThemedGssResourceTest extends GWTTestCase {
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.resources.GssResourceTest";
+  }
+
+  public void testRuntimeValuesAsCustomProperties() {
+    Theme theme = GWT.<ThemeResource>create(ThemeResource.class).theme();
+    String text = theme.getText();
+
+    // the same expression is replaced by the same custom property
+    String customProperty = text.substring(text.indexOf("var(") + 4, text.indexOf(")"));
+    // no collision with the custom properties of the page
+    assertTrue(customProperty.startsWith("--gwt-"));
+    assertEquals("." + theme.themed() + "{color:var(" + customProperty + ");border:1px solid var(" +
+        customProperty + ")}", text);
+
+    Colors.foreground = "red";
+    theme.ensureInjected();
+    if (supportsCustomProperties()) {
+      assertEquals("red", getCustomProperty(customProperty));
+    }
+
+    // the css is not rebuilt
+    Colors.foreground = "blue";
+    theme.updateCustomProperties();
+    if (supportsCustomProperties()) {
+      assertEquals("blue", getCustomProperty(customProperty));
+    }
+    assertEquals(text, theme.getText());
+  }
+
+  private native boolean supportsCustomProperties() /*-{
+    return !!$doc.documentElement.style.setProperty;
+  }-*/;
+
+  private native String getCustomProperty(String name) /*-{
+    return $doc.documentElement.style.getPropertyValue(name);
+  }-*/;
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gwt.core.ext.typeinfo.JClassType;
+import com.google.gwt.core.ext.typeinfo.JMethod;
+import com.google.gwt.core.ext.typeinfo.JParameter;
+import com.google.gwt.core.ext.typeinfo.JType;
+import com.google.gwt.core.ext.typeinfo.NotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientBundleMethodIndexTest {
+  private JClassType bundleType;
+  private JClassType nestedType;
+  private JClassType imageType;
+  private JMethod nestedMethod;
+  private JMethod imageMethod;
+  private ClientBundleMethodIndex index;
+
+  @Before
+  public void setUp() {
+    bundleType = mockType("Bundle");
+    nestedType = mockType("Nested");
+    imageType = mockType("Image");
+
+    nestedMethod = mockMethod(bundleType, "nested", nestedType);
+    imageMethod = mockMethod(nestedType, "image", imageType);
+    when(imageType.isAssignableFrom(imageType)).thenReturn(true);
+
+    index = new ClientBundleMethodIndex(bundleType);
+  }
+
+  @Test
+  public void getMethod_nestedPath_resolved() throws NotFoundException {
+    assertSame(imageMethod, index.getMethod("nested.image"));
+    assertSame(nestedMethod, index.getMethod("nested"));
+  }
+
+  @Test
+  public void getMethod_samePath_resolvedOnce() throws NotFoundException {
+    index.getMethod("nested.image");
+    index.getMethod("nested.image");
+    index.getMethod("nested");
+
+    verify(bundleType, times(1)).getOverloads("nested");
+    verify(nestedType, times(1)).getOverloads("image");
+  }
+
+  @Test
+  public void getMethod_unknownMethod_notFound() {
+    for (int i = 0; i < 2; i++) {
+      try {
+        index.getMethod("nested.unknown");
+        fail("NotFoundException expected");
+      } catch (NotFoundException e) {
+        assertEquals("Could not find no-arg method named unknown in type Nested", e.getMessage());
+      }
+    }
+
+    verify(nestedType, times(1)).getOverloads("unknown");
+  }
+
+  @Test
+  public void getMethod_unexpectedReturnType_notFound() throws NotFoundException {
+    assertSame(imageMethod, index.getMethod("nested.image", imageType));
+
+    try {
+      index.getMethod("nested", imageType);
+      fail("NotFoundException expected");
+    } catch (NotFoundException e) {
+      assertEquals("Expecting return type Image found Nested", e.getMessage());
+    }
+  }
+
+  private JClassType mockType(String name) {
+    JClassType type = mock(JClassType.class);
+    when(type.isClassOrInterface()).thenReturn(type);
+    when(type.getQualifiedSourceName()).thenReturn(name);
+    doReturn(ImmutableSet.of(type)).when(type).getFlattenedSupertypeHierarchy();
+    when(type.getOverloads(anyString())).thenReturn(new JMethod[0]);
+    return type;
+  }
+
+  private JMethod mockMethod(JClassType owner, String name, JType returnType) {
+    JMethod method = mock(JMethod.class);
+    when(method.getParameters()).thenReturn(new JParameter[0]);
+    when(method.getReturnType()).thenReturn(returnType);
+    when(owner.getOverloads(name)).thenReturn(new JMethod[] {method});
+    return method;
+  }
+}
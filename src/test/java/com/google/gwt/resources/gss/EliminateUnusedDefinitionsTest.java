@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssDefinitionNode;
+import com.google.common.css.compiler.ast.CssFontFaceNode;
+import com.google.common.css.compiler.ast.CssKeyframesNode;
+import com.google.common.css.compiler.ast.CssMixinDefinitionNode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.ErrorManager;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.ast.MutatingVisitController;
+import com.google.common.css.compiler.passes.CreateConditionalNodes;
+import com.google.common.css.compiler.passes.CreateConstantReferences;
+import com.google.common.css.compiler.passes.CreateDefinitionNodes;
+import com.google.common.css.compiler.passes.CreateMixins;
+import com.google.common.css.compiler.passes.CreateStandardAtRuleNodes;
+import com.google.common.css.compiler.passes.ProcessKeyframes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class EliminateUnusedDefinitionsTest {
+
+  @Test
+  public void runPass_unreferencedConstant_removed() throws GssParserException {
+    assertEquals("[def:A]", eliminate("@def A 1px; @def B 2px; .a{width:A}"));
+  }
+
+  @Test
+  public void runPass_constantOnlyReferencedByUnusedConstant_removed()
+      throws GssParserException {
+    assertEquals("[def:C]", eliminate("@def A 1px; @def B A; @def C 2px; @def D B; .a{width:C}"));
+  }
+
+  @Test
+  public void runPass_constantReferencedByLiveConstant_kept() throws GssParserException {
+    assertEquals("[def:A, def:B]", eliminate("@def A 1px; @def B A; .a{width:B}"));
+  }
+
+  @Test
+  public void runPass_exposedConstant_kept() throws GssParserException {
+    assertEquals("[def:MY_COLOR]", eliminate("@def MY_COLOR red;", "MY_COLOR"));
+  }
+
+  @Test
+  public void runPass_constantsUsedInConditionalsAndMixins_kept() throws GssParserException {
+    assertEquals("[def:D, def:E, def:F, mixin:m]",
+        eliminate("@def D 2px; @def E 3px; @def F 4px; @def G 5px;" +
+            "@defmixin m(W) { width: W; height: D; }" +
+            "@defmixin unused(W) { width: G; }" +
+            "@if (COND) { .x { margin: E; } } @else { .y { padding: F; } }" +
+            ".z { @mixin m(1px); }"));
+  }
+
+  @Test
+  public void runPass_keyframesAndFontFacesDisabled_kept() throws GssParserException {
+    assertEquals("[keyframes:foo, font-face]",
+        eliminate("@keyframes foo { from { top: 0 } to { top: 1px } }" +
+            "@font-face { font-family: MyFont; src: url(a.woff); }"));
+  }
+
+  @Test
+  public void runPass_unusedKeyframesAndFontFaces_removed() throws GssParserException {
+    assertEquals("[keyframes:foo, font-face]",
+        eliminateAll("@keyframes foo { from { top: 0 } to { top: 1px } }" +
+            "@keyframes bar { from { top: 0 } to { top: 1px } }" +
+            "@font-face { font-family: 'My Font'; src: url(a.woff); }" +
+            "@font-face { font-family: Other; src: url(b.woff); }" +
+            ".a { -webkit-animation: foo 1s infinite; font: 12px \"my font\", serif }"));
+  }
+
+  @Test
+  public void runPass_unknownAnimationName_keyframesKept() throws GssParserException {
+    assertEquals("[def:NAME, keyframes:foo]",
+        eliminateAll("@def NAME foo; @keyframes foo { from { top: 0 } to { top: 1px } }" +
+            ".a { animation-name: NAME }"));
+  }
+
+  private String eliminate(String css, String... exposedConstants) throws GssParserException {
+    return eliminate(css, false, exposedConstants);
+  }
+
+  private String eliminateAll(String css) throws GssParserException {
+    return eliminate(css, true);
+  }
+
+  private String eliminate(String css, boolean keyframesAndFontFaces,
+      String... exposedConstants) throws GssParserException {
+    CssTree cssTree = new GssParser(new SourceCode("test", css)).parse();
+    ErrorManager errorManager = mock(ErrorManager.class);
+    MutatingVisitController visitController = cssTree.getMutatingVisitController();
+    new CreateStandardAtRuleNodes(visitController, errorManager).runPass();
+    new CreateMixins(visitController, errorManager).runPass();
+    new CreateDefinitionNodes(visitController, errorManager).runPass();
+    new CreateConstantReferences(visitController).runPass();
+    new CreateConditionalNodes(visitController, errorManager).runPass();
+    new ProcessKeyframes(visitController, errorManager, true, true).runPass();
+
+    Set<String> exposed = ImmutableSet.copyOf(exposedConstants);
+    new EliminateUnusedDefinitions(visitController, exposed, keyframesAndFontFaces).runPass();
+
+    return collectDefinitions(cssTree).toString();
+  }
+
+  private List<String> collectDefinitions(CssTree cssTree) {
+    final List<String> definitions = new ArrayList<String>();
+    cssTree.getVisitController().startVisit(new DefaultTreeVisitor() {
+      @Override
+      public boolean enterDefinition(CssDefinitionNode node) {
+        definitions.add("def:" + node.getName().getValue());
+        return false;
+      }
+
+      @Override
+      public boolean enterMixinDefinition(CssMixinDefinitionNode node) {
+        definitions.add("mixin:" + node.getDefinitionName());
+        return false;
+      }
+
+      @Override
+      public boolean enterKeyframesRule(CssKeyframesNode node) {
+        definitions.add("keyframes:" + node.getParameters().get(0));
+        return false;
+      }
+
+      @Override
+      public boolean enterFontFace(CssFontFaceNode node) {
+        definitions.add("font-face");
+        return false;
+      }
+    });
+    return definitions;
+  }
+}
@@ -176,6 +176,31 @@ public class ExternalClassesCollectorTest {
     assertTrue(externalClasses.contains("external"));
   }
 
+  @Test
+  public void leaveClassSelector_afterExternalAtRuleWithPrefixes_onlyMatchingClassesAreExternals() {
+    // Given
+    when(atRuleNameNode.getValue()).thenReturn("external");
+    List<CssValueNode> parameters = Lists.newArrayList(stringNode("gwt-*"),
+        stringNode("gwt-Button-*"), stringNode("goog-*"));
+    when(atRuleParameters.getValues()).thenReturn(parameters);
+    externalClassesCollector.leaveUnknownAtRule(cssUnknownAtRuleNode);
+
+    // When
+    visitClassSelector("gwt-Label");
+    visitClassSelector("gwt-Button-up");
+    visitClassSelector("goog-menu");
+    visitClassSelector("gwt");
+    visitClassSelector("go");
+    visitClassSelector("other");
+
+    // Then
+    Set<String> externalClasses = externalClassesCollector.getExternalClassNames();
+    assertEquals(3, externalClasses.size());
+    assertTrue(externalClasses.contains("gwt-Label"));
+    assertTrue(externalClasses.contains("gwt-Button-up"));
+    assertTrue(externalClasses.contains("goog-menu"));
+  }
+
   private void visitClassSelector(String styleClass) {
     CssClassSelectorNode selector = mock(CssClassSelectorNode.class);
     when(selector.getRefinerName()).thenReturn(styleClass);
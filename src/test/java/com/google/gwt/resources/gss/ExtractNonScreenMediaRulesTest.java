@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.ErrorManager;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import com.google.common.css.compiler.passes.CreateStandardAtRuleNodes;
+import org.junit.Test;
+
+public class ExtractNonScreenMediaRulesTest {
+
+  @Test
+  public void runPass_printRules_extracted() throws GssParserException {
+    CssTree cssTree = parse(".a{color:red}@media print{.a{color:black}}" +
+        "@media screen and (max-width:100px){.a{width:0}}@media only print{.b{display:none}}");
+    ExtractNonScreenMediaRules pass = new ExtractNonScreenMediaRules(cssTree);
+    pass.runPass();
+
+    assertEquals(".a{color:red}@media screen and (max-width:100px){.a{width:0}}", print(cssTree));
+    assertEquals("@media print{.a{color:black}}@media only print{.b{display:none}}",
+        print(pass.getExtractedTree()));
+    assertEquals(ImmutableSet.of("print", "only print"), pass.getMediaQueries());
+  }
+
+  @Test
+  public void runPass_noNonScreenRule_nothingExtracted() throws GssParserException {
+    String css = ".a{color:red}@media (min-width:10px){.a{width:0}}";
+    CssTree cssTree = parse(css);
+    ExtractNonScreenMediaRules pass = new ExtractNonScreenMediaRules(cssTree);
+    pass.runPass();
+
+    assertEquals(css, print(cssTree));
+    assertTrue(pass.getMediaQueries().isEmpty());
+  }
+
+  @Test
+  public void runPass_overriddenByFollowingRuleset_notExtracted() throws GssParserException {
+    String css = "@media print{.x{color:black}}.x{color:red}@media print{.y{color:black}}";
+    CssTree cssTree = parse(css);
+    ExtractNonScreenMediaRules pass = new ExtractNonScreenMediaRules(cssTree);
+    pass.runPass();
+
+    // moving the first rule after .x{color:red} would change the color used when printing
+    assertEquals("@media print{.x{color:black}}.x{color:red}", print(cssTree));
+    assertEquals("@media print{.y{color:black}}", print(pass.getExtractedTree()));
+  }
+
+  @Test
+  public void isNonScreenQuery() {
+    assertTrue(ExtractNonScreenMediaRules.isNonScreenQuery("print"));
+    assertTrue(ExtractNonScreenMediaRules.isNonScreenQuery("print and (orientation:landscape)"));
+    assertTrue(ExtractNonScreenMediaRules.isNonScreenQuery("print,speech"));
+    assertFalse(ExtractNonScreenMediaRules.isNonScreenQuery("print,screen"));
+    assertFalse(ExtractNonScreenMediaRules.isNonScreenQuery("not print"));
+    assertFalse(ExtractNonScreenMediaRules.isNonScreenQuery("(max-width:10px)"));
+    assertFalse(ExtractNonScreenMediaRules.isNonScreenQuery("all"));
+  }
+
+  private CssTree parse(String css) throws GssParserException {
+    CssTree cssTree = new GssParser(new SourceCode("test", css)).parse();
+    new CreateStandardAtRuleNodes(cssTree.getMutatingVisitController(), mock(ErrorManager.class))
+        .runPass();
+    return cssTree;
+  }
+
+  private String print(CssTree cssTree) {
+    CompactPrinter printer = new CompactPrinter(cssTree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssMathNode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import org.junit.Test;
+
+public class FoldConstantCalcExpressionsTest {
+
+  @Test
+  public void runPass_sameUnits_folded() throws GssParserException {
+    assertEquals(".a{width:14px;height:2.5em}",
+        fold(".a{width:calc(10px + 4px);height:calc(3em - 0.5em)}"));
+  }
+
+  @Test
+  public void runPass_multiplicationAndDivision_folded() throws GssParserException {
+    assertEquals(".a{top:10px;left:7px;right:2.5%}",
+        fold(".a{top:calc((2px + 3px) * 2);left:calc(2px*3 + 1px);right:calc(10%/4)}"));
+  }
+
+  @Test
+  public void runPass_nestedInValues_folded() throws GssParserException {
+    assertEquals(".a{margin:3px 0;transform:translate(6px)}",
+        fold(".a{margin:calc(1px + 2px) 0;transform:translate(calc(3px * 2))}"));
+  }
+
+  @Test
+  public void runPass_mixedUnits_untouched() throws GssParserException {
+    String css = ".a{width:calc(100% - 10px);height:calc(10px/2 - 1em)}";
+    assertEquals(css, fold(css));
+  }
+
+  @Test
+  public void runPass_invalidOperations_untouched() throws GssParserException {
+    String css = ".a{width:calc(2px*3px);height:calc(10px/0);top:calc(10px/3)}";
+    assertEquals(css, fold(css));
+  }
+
+  @Test
+  public void runPass_negativeResult_untouched() throws GssParserException {
+    assertEquals(".a{width:calc(1px - 2px);height:0px}",
+        fold(".a{width:calc(1px - 2px);height:calc(2px - 2px)}"));
+  }
+
+  @Test
+  public void runPass_noWhitespaceAroundSum_untouched() throws GssParserException {
+    // the parser rejects these expressions, the pass must not fold them either
+    assertEquals(".a{width:calc(10px+4px)}", foldMathExpression("10px+4px"));
+    assertEquals(".a{width:calc(10px -4px)}", foldMathExpression("10px -4px"));
+    assertEquals(".a{width:calc(10px- 4px)}", foldMathExpression("10px- 4px"));
+  }
+
+  @Test
+  public void runPass_exponent_untouched() throws GssParserException {
+    String css = ".a{width:calc(1e3px + 1px);height:calc(2e-1em*2)}";
+    assertEquals(css, fold(css));
+  }
+
+  private String foldMathExpression(final String expression) throws GssParserException {
+    CssTree cssTree = new GssParser(new SourceCode("test", ".a{width:calc(0px)}")).parse();
+    cssTree.getVisitController().startVisit(new DefaultTreeVisitor() {
+      @Override
+      public boolean enterArgumentNode(CssValueNode node) {
+        if (node instanceof CssMathNode) {
+          node.setValue(expression);
+        }
+        return true;
+      }
+    });
+
+    return fold(cssTree);
+  }
+
+  private String fold(String css) throws GssParserException {
+    return fold(new GssParser(new SourceCode("test", css)).parse());
+  }
+
+  private String fold(CssTree cssTree) {
+    new FoldConstantCalcExpressions(cssTree.getMutatingVisitController()).runPass();
+
+    CompactPrinter printer = new CompactPrinter(cssTree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
+}
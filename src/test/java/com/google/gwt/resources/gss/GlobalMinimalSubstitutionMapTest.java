@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GlobalMinimalSubstitutionMapTest {
+
+  @Test
+  public void get_sameKey_sameName() {
+    GlobalMinimalSubstitutionMap map = new GlobalMinimalSubstitutionMap("");
+
+    String name = map.get("com.foo.Css.bar");
+
+    assertEquals(name, map.get("com.foo.Css.bar"));
+  }
+
+  @Test
+  public void get_differentKeys_differentNames() {
+    GlobalMinimalSubstitutionMap map = new GlobalMinimalSubstitutionMap("");
+
+    assertFalse(map.get("com.foo.Css.bar").equals(map.get("com.foo.OtherCss.bar")));
+  }
+
+  @Test
+  public void get_shortestNamesAllocatedFirst() {
+    GlobalMinimalSubstitutionMap map = new GlobalMinimalSubstitutionMap("");
+
+    for (int i = 0; i < 20; i++) {
+      assertEquals(1, map.get("key" + i).length());
+    }
+  }
+
+  @Test
+  public void get_reservedName_neverAllocated() {
+    GlobalMinimalSubstitutionMap reference = new GlobalMinimalSubstitutionMap("");
+    String firstName = reference.get("first");
+
+    GlobalMinimalSubstitutionMap map = new GlobalMinimalSubstitutionMap("");
+    map.reserve(firstName);
+
+    assertFalse(firstName.equals(map.get("first")));
+  }
+
+  @Test
+  public void get_withPrefix_namePrefixed() {
+    GlobalMinimalSubstitutionMap map = new GlobalMinimalSubstitutionMap("G-");
+
+    assertTrue(map.get("com.foo.Css.bar").startsWith("G-"));
+  }
+
+  @Test
+  public void get_previousName_kept() {
+    GlobalMinimalSubstitutionMap map = new GlobalMinimalSubstitutionMap("");
+    map.put("com.foo.Css.bar", "zz");
+
+    assertEquals("zz", map.get("com.foo.Css.bar"));
+  }
+
+  @Test
+  public void get_newKey_previousNamesSkipped() {
+    GlobalMinimalSubstitutionMap reference = new GlobalMinimalSubstitutionMap("");
+    String firstName = reference.get("first");
+
+    GlobalMinimalSubstitutionMap map = new GlobalMinimalSubstitutionMap("");
+    map.put("removed", firstName);
+
+    String name = map.get("first");
+    assertFalse(firstName.equals(name));
+    assertEquals(2, map.getMappings().size());
+    assertEquals(name, map.getMappings().get("first"));
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import org.junit.Test;
+
+public class GroupSpriteDeclarationsTest {
+
+  @Test
+  public void runPass_sameImage_spritesGrouped() throws GssParserException {
+    assertEquals(".a,.c{gwt-sprite:'img'}.b{color:red}",
+        group(".a{gwt-sprite:'img'}.b{color:red}.c{gwt-sprite:'img'}"));
+  }
+
+  @Test
+  public void runPass_differentImages_notGrouped() throws GssParserException {
+    String css = ".a{gwt-sprite:'img'}.b{gwt-sprite:'other'}";
+    assertEquals(css, group(css));
+  }
+
+  @Test
+  public void runPass_otherDeclarations_stayInPlace() throws GssParserException {
+    assertEquals(".a{color:red}.a,.c{gwt-sprite:'img'}.a{margin:0}.b{color:blue}.c{padding:0}",
+        group(".a{color:red;gwt-sprite:'img';margin:0}.b{color:blue}" +
+            ".c{gwt-sprite:'img';padding:0}"));
+  }
+
+  @Test
+  public void runPass_conflictingRulesetInBetween_notGrouped() throws GssParserException {
+    String css = ".a{gwt-sprite:'img'}.b{width:10px}.c{gwt-sprite:'img'}";
+    assertEquals(css, group(css));
+  }
+
+  @Test
+  public void runPass_conflictAfterFirstOccurrence_groupedWithLaterOccurrence()
+      throws GssParserException {
+    assertEquals(".a{gwt-sprite:'img'}.b{background:none}.c,.d{gwt-sprite:'img'}",
+        group(".a{gwt-sprite:'img'}.b{background:none}.c{gwt-sprite:'img'}" +
+            ".d{gwt-sprite:'img'}"));
+  }
+
+  @Test
+  public void runPass_spriteOverriddenInSameRuleset_notGrouped() throws GssParserException {
+    String css = ".a{gwt-sprite:'img'}.b{height:1px;gwt-sprite:'img'}";
+    assertEquals(css, group(css));
+  }
+
+  @Test
+  public void runPass_spriteOverriddenAfter_grouped() throws GssParserException {
+    assertEquals(".a,.b{gwt-sprite:'img'}.b{height:1px}",
+        group(".a{gwt-sprite:'img'}.b{gwt-sprite:'img';height:1px}"));
+  }
+
+  private String group(String css) throws GssParserException {
+    CssTree tree = new GssParser(new SourceCode("test", css)).parse();
+
+    new GroupSpriteDeclarations(tree.getMutatingVisitController()).runPass();
+
+    CompactPrinter printer = new CompactPrinter(tree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import org.junit.Test;
+
+public class MergeLonghandDeclarationsTest {
+
+  @Test
+  public void runPass_completeMarginGroup_mergedIntoShorthand() throws GssParserException {
+    assertEquals(".a{color:red;margin:1px 2px 3px 4px}",
+        merge(".a{color:red;margin-top:1px;margin-right:2px;margin-bottom:3px;margin-left:4px}"));
+  }
+
+  @Test
+  public void runPass_longhandsInAnyOrder_valuesOrderedInShorthand() throws GssParserException {
+    assertEquals(".a{padding:1px 2px 3px 4px}",
+        merge(".a{padding-left:4px;padding-bottom:3px;padding-top:1px;padding-right:2px}"));
+  }
+
+  @Test
+  public void runPass_borderGroups_eachGroupMerged() throws GssParserException {
+    assertEquals(".a{border-width:1px 1px 1px 1px;border-style:solid solid solid solid}",
+        merge(".a{border-top-width:1px;border-right-width:1px;border-bottom-width:1px;" +
+            "border-left-width:1px;border-top-style:solid;border-right-style:solid;" +
+            "border-bottom-style:solid;border-left-style:solid}"));
+  }
+
+  @Test
+  public void runPass_incompleteGroup_notMerged() throws GssParserException {
+    String css = ".a{margin-top:1px;margin-right:2px;margin-bottom:3px}";
+    assertEquals(css, merge(css));
+  }
+
+  @Test
+  public void runPass_shorthandAlreadyDeclared_notMerged() throws GssParserException {
+    String css = ".a{margin:0;margin-top:1px;margin-right:2px;margin-bottom:3px;margin-left:4px}";
+    assertEquals(css, merge(css));
+  }
+
+  @Test
+  public void runPass_differentImportance_notMerged() throws GssParserException {
+    String css = ".a{margin-top:1px!important;margin-right:2px;margin-bottom:3px;" +
+        "margin-left:4px}";
+    assertEquals(css, merge(css));
+  }
+
+  @Test
+  public void runPass_allImportant_mergedWithImportance() throws GssParserException {
+    assertEquals(".a{margin:1px 2px 3px 4px!important}",
+        merge(".a{margin-top:1px!important;margin-right:2px!important;" +
+            "margin-bottom:3px!important;margin-left:4px!important}"));
+  }
+
+  @Test
+  public void runPass_alternateAnnotation_notMerged() throws GssParserException {
+    assertEquals(".a{margin-top:1px;margin-right:2px;margin-bottom:3px;margin-left:4px}",
+        merge(".a{margin-top:1px;margin-right:2px;margin-bottom:3px;" +
+            "/* @alternate */margin-left:4px}"));
+  }
+
+  @Test
+  public void runPass_partialNoFlipAnnotation_notMerged() throws GssParserException {
+    assertEquals(".a{margin-top:1px;margin-right:2px;margin-bottom:3px;margin-left:4px}",
+        merge(".a{margin-top:1px;margin-right:2px;margin-bottom:3px;" +
+            "/* @noflip */margin-left:4px}"));
+  }
+
+  @Test
+  public void runPass_completeBackgroundGroup_notMerged() throws GssParserException {
+    // the shorthand would reset the background-size set by another ruleset
+    String css = ".a{background-color:red;background-image:url(a.png);" +
+        "background-repeat:no-repeat;background-attachment:fixed;background-position:0 0}";
+    assertEquals(css, merge(css));
+  }
+
+  private String merge(String css) throws GssParserException {
+    CssTree tree = new GssParser(new SourceCode("test", css)).parse();
+
+    new MergeLonghandDeclarations(tree.getMutatingVisitController()).runPass();
+
+    CompactPrinter printer = new CompactPrinter(tree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
+}
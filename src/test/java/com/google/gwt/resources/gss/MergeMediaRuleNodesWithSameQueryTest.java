@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.ErrorManager;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import com.google.common.css.compiler.passes.CreateStandardAtRuleNodes;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class MergeMediaRuleNodesWithSameQueryTest {
+
+  @Test
+  public void runPass_noConflict_mediaRulesMerged() throws GssParserException {
+    assertEquals("@media print{.a{color:red}.c{color:blue}}.b{width:1px}",
+        merge("@media print{.a{color:red}}.b{width:1px}@media print{.c{color:blue}}"));
+  }
+
+  @Test
+  public void runPass_differentQueries_notMerged() throws GssParserException {
+    String css = "@media print{.a{color:red}}@media screen{.c{color:blue}}";
+    assertEquals(css, merge(css));
+  }
+
+  @Test
+  public void runPass_conflictingRulesetInBetween_notMerged() throws GssParserException {
+    String css = "@media print{.a{color:red}}.b{color:green}@media print{.c{color:blue}}";
+    assertEquals(css, merge(css));
+  }
+
+  @Test
+  public void runPass_laterRulesCannotMoveUp_firstMediaRuleMovedDown()
+      throws GssParserException {
+    assertEquals(".b{color:green}@media print{.a{width:0}.c{color:blue}}",
+        merge("@media print{.a{width:0}}.b{color:green}@media print{.c{color:blue}}"));
+  }
+
+  @Test
+  public void runPass_conflictAfterFirstOccurrence_mergedWithLaterOccurrence()
+      throws GssParserException {
+    assertEquals("@media print{.a{color:red}}.b{color:green}" +
+            "@media print{.c{color:blue}.d{width:0}}",
+        merge("@media print{.a{color:red}}.b{color:green}@media print{.c{color:blue}}" +
+            "@media print{.d{width:0}}"));
+  }
+
+  @Test
+  public void runPass_responsiveCorpus_outputShrinks() throws GssParserException, IOException {
+    String css = IOUtils.toString(getClass().getResourceAsStream("responsive-corpus.gss"),
+        "UTF-8");
+
+    String original = print(parse(css));
+    String merged = merge(css);
+
+    assertTrue(merged.length() < original.length());
+    assertEquals(12, countMediaRules(original));
+    assertEquals(10, countMediaRules(merged));
+  }
+
+  private int countMediaRules(String css) {
+    return css.split("@media", -1).length - 1;
+  }
+
+  private CssTree parse(String css) throws GssParserException {
+    CssTree tree = new GssParser(new SourceCode("test", css)).parse();
+    new CreateStandardAtRuleNodes(tree.getMutatingVisitController(), mock(ErrorManager.class))
+        .runPass();
+    return tree;
+  }
+
+  private String merge(String css) throws GssParserException {
+    CssTree tree = parse(css);
+    new MergeMediaRuleNodesWithSameQuery(tree.getMutatingVisitController()).runPass();
+    return print(tree);
+  }
+
+  private String print(CssTree tree) {
+    CompactPrinter printer = new CompactPrinter(tree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import com.google.common.css.compiler.passes.EliminateUselessRulesetNodes;
+import org.junit.Test;
+
+public class MergeNonAdjacentRulesetNodesWithSameDeclarationsTest {
+
+  @Test
+  public void runPass_noConflict_rulesetsMerged() throws GssParserException {
+    assertEquals(".a,.c{color:red}.b{width:1px}",
+        merge(".a{color:red}.b{width:1px}.c{color:red}"));
+  }
+
+  @Test
+  public void runPass_sameSpecificityOverlappingProperty_rulesetsNotMerged()
+      throws GssParserException {
+    String css = ".a{color:red}.b{color:blue}.c{color:red}";
+    assertEquals(css, merge(css));
+  }
+
+  @Test
+  public void runPass_shorthandOverlappingLonghand_rulesetsNotMerged() throws GssParserException {
+    String css = ".a{margin-top:1px}.b{margin:0}.c{margin-top:1px}";
+    assertEquals(css, merge(css));
+  }
+
+  @Test
+  public void runPass_vendorPrefixedOverlappingProperty_rulesetsNotMerged()
+      throws GssParserException {
+    String css = ".a{transition:none}.b{-webkit-transition:all 1s}.c{transition:none}";
+    assertEquals(css, merge(css));
+  }
+
+  @Test
+  public void runPass_differentSpecificity_rulesetsMerged() throws GssParserException {
+    assertEquals(".a,.c{color:red}#b{color:blue}",
+        merge(".a{color:red}#b{color:blue}.c{color:red}"));
+  }
+
+  @Test
+  public void runPass_differentImportance_rulesetsMerged() throws GssParserException {
+    assertEquals(".a,.c{color:red}.b{color:blue!important}",
+        merge(".a{color:red}.b{color:blue!important}.c{color:red}"));
+  }
+
+  @Test
+  public void runPass_conflictingRulesetInNestedBlock_rulesetsNotMerged()
+      throws GssParserException {
+    String css = ".a{color:red}@media print{.b{color:blue}}.c{color:red}";
+    assertEquals(css, merge(css));
+  }
+
+  @Test
+  public void runPass_conflictAfterFirstOccurrence_mergedWithLaterOccurrence()
+      throws GssParserException {
+    assertEquals(".a{color:red}.b{color:blue}.c,.d{color:red}",
+        merge(".a{color:red}.b{color:blue}.c{color:red}.d{color:red}"));
+  }
+
+  @Test
+  public void runPass_pseudoElement_rulesetsNotMerged() throws GssParserException {
+    String css = ".a{color:red}.b{width:0}.c::-moz-selection{color:red}";
+    assertEquals(css, merge(css));
+  }
+
+  private String merge(String css) throws GssParserException {
+    CssTree tree = new GssParser(new SourceCode("test", css)).parse();
+
+    new MergeNonAdjacentRulesetNodesWithSameDeclarations(tree).runPass();
+    new EliminateUselessRulesetNodes(tree).runPass();
+
+    CompactPrinter printer = new CompactPrinter(tree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
+}
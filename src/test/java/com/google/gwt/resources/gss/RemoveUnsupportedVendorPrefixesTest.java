@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.ErrorManager;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import com.google.common.css.compiler.passes.CreateStandardAtRuleNodes;
+import com.google.common.css.compiler.passes.ProcessKeyframes;
+import org.junit.Test;
+
+import java.util.Set;
+
+public class RemoveUnsupportedVendorPrefixesTest {
+  private static final Set<String> KNOWN_PREFIXES =
+      ImmutableSet.of("-webkit-", "-moz-", "-ms-", "-o-");
+
+  @Test
+  public void runPass_prefixedProperties_onlySupportedKept() throws GssParserException {
+    assertEquals(".a{-webkit-transition:top 1s;transition:top 1s}",
+        prune(".a{-webkit-transition:top 1s;-moz-transition:top 1s;-o-transition:top 1s;" +
+            "transition:top 1s}", "-webkit-"));
+  }
+
+  @Test
+  public void runPass_unknownPrefix_kept() throws GssParserException {
+    String css = ".a{-khtml-user-select:none}";
+    assertEquals(css, prune(css, "-webkit-"));
+  }
+
+  @Test
+  public void runPass_prefixedFunctionsAndKeywords_declarationRemoved()
+      throws GssParserException {
+    assertEquals(".a{display:-webkit-box;background:-webkit-linear-gradient(top,red,blue)}",
+        prune(".a{display:-webkit-box;display:-ms-flexbox;" +
+            "background:-webkit-linear-gradient(top,red,blue);" +
+            "background:-moz-linear-gradient(top,red,blue)}", "-webkit-"));
+  }
+
+  @Test
+  public void runPass_prefixedIdentifierInTransition_kept() throws GssParserException {
+    String css = ".a{transition:-moz-transform 1s}";
+    assertEquals(css, prune(css, "-webkit-"));
+  }
+
+  @Test
+  public void runPass_prefixedPseudoElement_rulesetRemoved() throws GssParserException {
+    assertEquals(".a::-webkit-input-placeholder{color:red}",
+        prune(".a::-webkit-input-placeholder{color:red}.a::-moz-placeholder{color:red}",
+            "-webkit-"));
+  }
+
+  @Test
+  public void runPass_prefixedKeyframes_removed() throws GssParserException {
+    assertEquals("@keyframes foo{0%{top:0}to{top:1px}}",
+        prune("@-webkit-keyframes foo{0%{top:0}to{top:1px}}" +
+            "@keyframes foo{0%{top:0}to{top:1px}}", "-moz-"));
+  }
+
+  @Test
+  public void containsVendorPrefixes() throws GssParserException {
+    assertTrue(RemoveUnsupportedVendorPrefixes.containsVendorPrefixes(
+        parse(".a{-moz-box-sizing:border-box}"), KNOWN_PREFIXES));
+    assertFalse(RemoveUnsupportedVendorPrefixes.containsVendorPrefixes(
+        parse(".a{box-sizing:border-box}"), KNOWN_PREFIXES));
+  }
+
+  private String prune(String css, String... supportedPrefixes) throws GssParserException {
+    CssTree cssTree = parse(css);
+    new RemoveUnsupportedVendorPrefixes(cssTree.getMutatingVisitController(), KNOWN_PREFIXES,
+        ImmutableSet.copyOf(supportedPrefixes)).runPass();
+
+    CompactPrinter printer = new CompactPrinter(cssTree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
+
+  private CssTree parse(String css) throws GssParserException {
+    CssTree cssTree = new GssParser(new SourceCode("test", css)).parse();
+    ErrorManager errorManager = mock(ErrorManager.class);
+    new CreateStandardAtRuleNodes(cssTree.getMutatingVisitController(), errorManager).runPass();
+    new ProcessKeyframes(cssTree.getMutatingVisitController(), errorManager, true, true)
+        .runPass();
+    return cssTree;
+  }
+}
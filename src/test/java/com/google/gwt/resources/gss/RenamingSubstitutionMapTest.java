@@ -23,6 +23,12 @@ import static org.mockito.Mockito.mock;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import com.google.common.css.compiler.passes.CssClassRenaming;
 import com.google.gwt.core.ext.TreeLogger;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -119,4 +125,89 @@ public class RenamingSubstitutionMapTest {
 
     assertTrue(substitutionMap.hasError());
   }
+
+  @Test
+  public void getStyleClasses_onlyUsedClassesReturned() {
+    TreeLogger logger = mock(TreeLogger.class);
+
+    Map<String, Map<String, String>> replacementWithPrefix = new HashMap<String, Map<String,
+        String>>();
+    replacementWithPrefix.put("", ImmutableMap.of("class1", "obfuscated1", "class2",
+        "obfuscated2"));
+    replacementWithPrefix.put("prefix1-", ImmutableMap.of("class3", "obfuscated3"));
+    PrefixedReplacementMap replacementMap = new PrefixedReplacementMap(replacementWithPrefix,
+        Sets.newHashSet("external1"));
+
+    // the replacement map can be shared between several substitution maps
+    RenamingSubstitutionMap substitutionMap1 = new RenamingSubstitutionMap(replacementMap, true,
+        logger);
+    substitutionMap1.get("class1");
+    substitutionMap1.get("prefix1-class3");
+    substitutionMap1.get("external1");
+
+    RenamingSubstitutionMap substitutionMap2 = new RenamingSubstitutionMap(replacementMap, true,
+        logger);
+    substitutionMap2.get("class2");
+
+    assertEquals(Sets.newHashSet("class1", "prefix1-class3", "external1"),
+        substitutionMap1.getStyleClasses());
+    assertEquals(Sets.newHashSet("class2"), substitutionMap2.getStyleClasses());
+  }
+
+  @Test
+  public void renamingPass_sharedReplacementMap_sameResultAsUncachedMap()
+      throws GssParserException {
+    TreeLogger logger = mock(TreeLogger.class);
+
+    // 100 classes of the type and 2 imported types of 50 classes
+    Map<String, Map<String, String>> replacementWithPrefix = new HashMap<String, Map<String,
+        String>>();
+    StringBuilder css = new StringBuilder();
+    for (int type = 0; type < 3; type++) {
+      String prefix = type == 0 ? "" : "import" + type + "-";
+      Map<String, String> replacements = new HashMap<String, String>();
+
+      for (int i = 0; i < (type == 0 ? 100 : 50); i++) {
+        replacements.put("class" + i, "t" + type + "c" + i);
+        css.append('.').append(prefix).append("class").append(i).append("{color:red}");
+      }
+      replacementWithPrefix.put(prefix, replacements);
+    }
+    css.append(".external{color:red}");
+    Set<String> externals = Sets.newHashSet("external");
+    CssTree cssTree = new GssParser(new SourceCode("test", css.toString())).parse();
+
+    CssTree uncachedTree = new CssTree(cssTree.getSourceCode(), cssTree.getRoot().deepCopy());
+    RenamingSubstitutionMap uncachedMap = new RenamingSubstitutionMap(replacementWithPrefix,
+        externals, true, logger);
+    rename(uncachedTree, uncachedMap);
+
+    // the same replacement map is used by every permutation
+    PrefixedReplacementMap replacementMap = new PrefixedReplacementMap(replacementWithPrefix,
+        externals);
+    for (int i = 0; i < 3; i++) {
+      CssTree cachedTree = new CssTree(cssTree.getSourceCode(), cssTree.getRoot().deepCopy());
+      RenamingSubstitutionMap cachedMap = new RenamingSubstitutionMap(replacementMap, true,
+          logger);
+      rename(cachedTree, cachedMap);
+
+      assertEquals(print(uncachedTree), print(cachedTree));
+      assertEquals(uncachedMap.getStyleClasses(), cachedMap.getStyleClasses());
+      assertFalse(cachedMap.hasError());
+    }
+
+    assertEquals(201, uncachedMap.getStyleClasses().size());
+    assertTrue(print(uncachedTree).startsWith(".t0c0{color:red}"));
+    assertTrue(print(uncachedTree).endsWith(".external{color:red}"));
+  }
+
+  private void rename(CssTree cssTree, RenamingSubstitutionMap substitutionMap) {
+    new CssClassRenaming(cssTree.getMutatingVisitController(), substitutionMap, null).runPass();
+  }
+
+  private String print(CssTree cssTree) {
+    CompactPrinter printer = new CompactPrinter(cssTree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.base.Charsets;
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.ErrorManager;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import com.google.common.css.compiler.passes.CreateStandardAtRuleNodes;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+public class ReorderRulesetsForCompressionTest {
+
+  @Test
+  public void runPass_sameProperties_grouped() throws GssParserException {
+    assertEquals(".a{color:red;width:1px}.c{color:blue;width:2px}.b{height:0}",
+        reorder(".a{color:red;width:1px}.b{height:0}.c{color:blue;width:2px}", 0));
+  }
+
+  @Test
+  public void runPass_conflictingRulesetInBetween_notMoved() throws GssParserException {
+    String css = ".a{color:red;width:1px}.b{color:green}.c{color:blue;width:2px}";
+    assertEquals(css, reorder(css, 0));
+  }
+
+  @Test
+  public void runPass_withinWindow_notMoved() throws GssParserException {
+    String css = ".a{color:red;width:1px}.b{height:0}.c{color:blue;width:2px}";
+    assertEquals(css, reorder(css, 1024));
+  }
+
+  @Test
+  public void runPass_mediaRuleInBetween_movedOverIt() throws GssParserException {
+    assertEquals(".a{color:red}.c{color:blue}@media print{.b{width:0}}",
+        reorder(".a{color:red}@media print{.b{width:0}}.c{color:blue}", 0));
+  }
+
+  @Test
+  public void runPass_generatedCorpus_gzipSizeDecreased() throws GssParserException,
+      IOException {
+    String css = generateCorpus(1500);
+    String original = print(parse(css));
+    String reordered = reorder(css, 0);
+
+    // rulesets are only moved
+    assertEquals(original.length(), reordered.length());
+    assertTrue(gzipSize(reordered) < gzipSize(original));
+  }
+
+  @Test
+  public void runPass_generatedCorpusWithinGzipWindow_notReordered() throws GssParserException {
+    String css = generateCorpus(1500);
+    assertEquals(print(parse(css)), reorder(css, 32768));
+  }
+
+  /**
+   * Generates components made of rules having the same shapes but different values.
+   */
+  private String generateCorpus(int components) {
+    Random random = new Random(42);
+    StringBuilder corpus = new StringBuilder();
+
+    for (int i = 0; i < components; i++) {
+      corpus.append(".component").append(i).append("-title{font-size:")
+          .append(12 + random.nextInt(20)).append("px;line-height:")
+          .append(16 + random.nextInt(32)).append("px;color:#")
+          .append(Integer.toHexString(0x100000 + random.nextInt(0xefffff))).append("}");
+
+      corpus.append(".component").append(i).append("-box{margin:").append(random.nextInt(30))
+          .append("px;padding:").append(random.nextInt(30)).append("px;border:1px solid #")
+          .append(Integer.toHexString(0x100000 + random.nextInt(0xefffff))).append("}");
+
+      corpus.append(".component").append(i).append("-icon-").append(random.nextInt(1000))
+          .append("{background-image:url(images/icon").append(random.nextInt(100000))
+          .append(".png);width:").append(random.nextInt(64)).append("px;height:")
+          .append(random.nextInt(64)).append("px;top:").append(random.nextInt(64))
+          .append("px;left:").append(random.nextInt(64)).append("px}");
+    }
+    return corpus.toString();
+  }
+
+  private int gzipSize(String css) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+    gzip.write(css.getBytes(Charsets.UTF_8));
+    gzip.close();
+    return bytes.size();
+  }
+
+  private String reorder(String css, int windowSize) throws GssParserException {
+    CssTree cssTree = parse(css);
+    new ReorderRulesetsForCompression(cssTree.getMutatingVisitController(), windowSize).runPass();
+    return print(cssTree);
+  }
+
+  private CssTree parse(String css) throws GssParserException {
+    CssTree cssTree = new GssParser(new SourceCode("test", css)).parse();
+    new CreateStandardAtRuleNodes(cssTree.getMutatingVisitController(), mock(ErrorManager.class))
+        .runPass();
+    return cssTree;
+  }
+
+  private String print(CssTree cssTree) {
+    CompactPrinter printer = new CompactPrinter(cssTree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.css.MinimalSubstitutionMap;
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.ErrorManager;
+import com.google.common.css.compiler.ast.GssFunction;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import com.google.common.css.compiler.passes.ResolveCustomFunctionNodes;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class ReplaceRuntimeValuesWithCustomPropertiesTest {
+
+  @Test
+  public void runPass_runtimeValues_replaced() throws GssParserException {
+    CssTree cssTree = parse(".a{color:eval('Theme.color()');border:1px solid value('theme.border')}" +
+        ".b{background-color:eval('Theme.color()')}");
+    ReplaceRuntimeValuesWithCustomProperties pass = replace(cssTree);
+
+    assertEquals(".a{color:var(--a);border:1px solid var(--b)}.b{background-color:var(--a)}",
+        print(cssTree));
+    assertEquals(ImmutableMap.of("--a", "Theme.color()", "--b", "theme().border()"),
+        pass.getCustomProperties());
+  }
+
+  @Test
+  public void runPass_nestedRuntimeValue_untouched() throws GssParserException {
+    CssTree cssTree = parse(".a{transform:translate(eval('Theme.width()'));color:red}");
+    ReplaceRuntimeValuesWithCustomProperties pass = replace(cssTree);
+
+    assertEquals(0, pass.getCustomProperties().size());
+  }
+
+  private CssTree parse(String css) throws GssParserException {
+    CssTree cssTree = new GssParser(new SourceCode("test", css)).parse();
+
+    Map<String, GssFunction> functions = ImmutableMap.<String, GssFunction>of(
+        EvalFunction.getName(), new EvalFunction(), ValueFunction.getName(), new ValueFunction());
+    new ResolveCustomFunctionNodes(cssTree.getMutatingVisitController(), mock(ErrorManager.class),
+        functions, true).runPass();
+    return cssTree;
+  }
+
+  private ReplaceRuntimeValuesWithCustomProperties replace(CssTree cssTree) {
+    ReplaceRuntimeValuesWithCustomProperties pass = new ReplaceRuntimeValuesWithCustomProperties(
+        cssTree.getVisitController(), new MinimalSubstitutionMap());
+    pass.runPass();
+    return pass;
+  }
+
+  private String print(CssTree cssTree) {
+    CompactPrinter printer = new CompactPrinter(cssTree);
+    printer.runPass();
+    return printer.getCompactPrintedString();
+  }
+}
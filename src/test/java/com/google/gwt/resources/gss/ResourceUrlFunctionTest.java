@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 Julien Dramaix.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.resources.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.css.compiler.ast.CssFunctionNode;
+import com.google.common.css.compiler.ast.CssLiteralNode;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.ErrorManager;
+import com.google.common.css.compiler.ast.GssFunctionException;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Resources;
+import com.google.gwt.core.ext.BadPropertyValueException;
+import com.google.gwt.core.ext.GeneratorContext;
+import com.google.gwt.core.ext.PropertyOracle;
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.typeinfo.JClassType;
+import com.google.gwt.core.ext.typeinfo.JMethod;
+import com.google.gwt.core.ext.typeinfo.JPackage;
+import com.google.gwt.core.ext.typeinfo.NotFoundException;
+import com.google.gwt.core.ext.typeinfo.TypeOracle;
+import com.google.gwt.dev.resource.ResourceOracle;
+import com.google.gwt.resources.client.ClientBundle.Source;
+import com.google.gwt.resources.client.DataResource;
+import com.google.gwt.resources.client.DataResource.MimeType;
+import com.google.gwt.resources.client.ImageResource;
+import com.google.gwt.resources.ext.ClientBundleRequirements;
+import com.google.gwt.resources.ext.ResourceContext;
+import com.google.gwt.resources.gss.ast.CssJavaExpressionNode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+public class ResourceUrlFunctionTest {
+  private static final String ICON_PATH = "com/google/gwt/resources/client/icon.svg";
+
+  private ResourceContext context;
+  private ClientBundleRequirements requirements;
+  private ClientBundleMethodIndex methodIndex;
+  private byte[] iconData;
+
+  @Before
+  public void setUp() throws BadPropertyValueException, NotFoundException, IOException {
+    iconData = Resources.toByteArray(Resources.getResource(ICON_PATH));
+
+    JClassType dataResourceType = mock(JClassType.class);
+    when(dataResourceType.isAssignableFrom(dataResourceType)).thenReturn(true);
+    when(dataResourceType.isClassOrInterface()).thenReturn(dataResourceType);
+
+    TypeOracle typeOracle = mock(TypeOracle.class);
+    when(typeOracle.findType(DataResource.class.getCanonicalName())).thenReturn(dataResourceType);
+    when(typeOracle.findType(ImageResource.class.getCanonicalName()))
+        .thenReturn(mock(JClassType.class));
+
+    // no locale
+    PropertyOracle propertyOracle = mock(PropertyOracle.class);
+    when(propertyOracle.getSelectionProperty(any(TreeLogger.class), eq("locale")))
+        .thenThrow(new BadPropertyValueException("locale"));
+
+    GeneratorContext generatorContext = mock(GeneratorContext.class);
+    when(generatorContext.getTypeOracle()).thenReturn(typeOracle);
+    when(generatorContext.getPropertyOracle()).thenReturn(propertyOracle);
+    when(generatorContext.getResourcesOracle()).thenReturn(mock(ResourceOracle.class));
+
+    requirements = mock(ClientBundleRequirements.class);
+
+    context = mock(ResourceContext.class);
+    when(context.getGeneratorContext()).thenReturn(generatorContext);
+    when(context.getRequirements()).thenReturn(requirements);
+    when(context.getImplementationSimpleSourceName()).thenReturn("Bundle");
+    when(context.supportsDataUrls()).thenReturn(true);
+
+    JMethod iconMethod = mockResourceMethod(dataResourceType, ICON_PATH, "image/svg+xml");
+    methodIndex = mock(ClientBundleMethodIndex.class);
+    when(methodIndex.getMethod("icon")).thenReturn(iconMethod);
+  }
+
+  @Test
+  public void getCallResultNodes_sizeEqualToThreshold_inlined() throws Exception {
+    CssValueNode url = callResourceUrl(iconData.length);
+
+    assertTrue(url instanceof CssLiteralNode);
+    assertEquals("data:image/svg+xml;base64," + BaseEncoding.base64().encode(iconData),
+        url.getValue());
+    verify(requirements).addPermutationAxis("locale");
+  }
+
+  @Test
+  public void getCallResultNodes_sizeAboveThreshold_notInlined() throws Exception {
+    CssValueNode url = callResourceUrl(iconData.length - 1);
+
+    assertTrue(url instanceof CssJavaExpressionNode);
+    assertEquals("Bundle.this.icon().getSafeUri().asString()", url.getValue());
+  }
+
+  @Test
+  public void getCallResultNodes_inliningDisabled_notInlined() throws Exception {
+    CssValueNode url = callResourceUrl(0);
+
+    assertTrue(url instanceof CssJavaExpressionNode);
+  }
+
+  @Test
+  public void getCallResultNodes_dataUrlsNotSupported_notInlined() throws Exception {
+    when(context.supportsDataUrls()).thenReturn(false);
+
+    CssValueNode url = callResourceUrl(iconData.length);
+
+    assertTrue(url instanceof CssJavaExpressionNode);
+  }
+
+  private CssValueNode callResourceUrl(int threshold) throws GssFunctionException {
+    ResourceUrlFunction function = new ResourceUrlFunction(context, methodIndex, threshold);
+
+    List<CssValueNode> result = function.getCallResultNodes(
+        ImmutableList.<CssValueNode>of(new CssLiteralNode("icon")), mock(ErrorManager.class));
+
+    assertEquals(1, result.size());
+    CssFunctionNode urlFunction = (CssFunctionNode) result.get(0);
+    assertEquals(1, urlFunction.getArguments().numChildren());
+    return urlFunction.getArguments().getChildAt(0);
+  }
+
+  private JMethod mockResourceMethod(JClassType returnType, String path, String mimeType) {
+    int lastSlash = path.lastIndexOf('/');
+
+    JPackage resourcePackage = mock(JPackage.class);
+    when(resourcePackage.getName()).thenReturn(path.substring(0, lastSlash).replace('/', '.'));
+    JClassType bundleType = mock(JClassType.class);
+    when(bundleType.getPackage()).thenReturn(resourcePackage);
+
+    Source source = mock(Source.class);
+    when(source.value()).thenReturn(new String[] {path.substring(lastSlash + 1)});
+    MimeType mimeTypeAnnotation = mock(MimeType.class);
+    when(mimeTypeAnnotation.value()).thenReturn(mimeType);
+
+    JMethod method = mock(JMethod.class);
+    when(method.getReturnType()).thenReturn(returnType);
+    when(method.getEnclosingType()).thenReturn(bundleType);
+    when(method.getAnnotation(Source.class)).thenReturn(source);
+    when(method.getAnnotation(MimeType.class)).thenReturn(mimeTypeAnnotation);
+    return method;
+  }
+}